@@ -0,0 +1,91 @@
+package com.twock.ranking;
+
+import static java.lang.Math.*;
+
+/**
+ * A set of strings that can answer "definitely not added" from a few bits per string, but may wrongly answer "possibly
+ * added" at roughly the false positive rate it was sized for.  Strings cannot be removed.
+ *
+ * @author Chris Pearson
+ */
+public class BloomFilter {
+  private final long[] bits;
+  private final long bitCount;
+  private final int hashCount;
+
+  /**
+   * @param expectedInsertions number of strings expected to be added
+   * @param falsePositiveRate chance of wrongly answering "possibly added" once that many have been, e.g. 0.01
+   */
+  public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+    long n = max(1, expectedInsertions);
+    long m = max(64, (long)ceil(-n * log(falsePositiveRate) / (log(2) * log(2))));
+    bits = new long[(int)min(Integer.MAX_VALUE, (m + 63) / 64)];
+    bitCount = bits.length * 64L;
+    hashCount = max(1, (int)round((double)bitCount / n * log(2)));
+  }
+
+  /**
+   * @return true if the string was not possibly added before
+   */
+  public boolean put(CharSequence value) {
+    long hash = hash(value);
+    long hash2 = mix(hash) | 1;
+    boolean changed = false;
+    for(int i = 0; i < hashCount; i++) {
+      long bit = ((hash + i * hash2) >>> 1) % bitCount;
+      long mask = 1L << bit;
+      int word = (int)(bit >>> 6);
+      if((bits[word] & mask) == 0) {
+        bits[word] |= mask;
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  public boolean mightContain(CharSequence value) {
+    long hash = hash(value);
+    long hash2 = mix(hash) | 1;
+    for(int i = 0; i < hashCount; i++) {
+      long bit = ((hash + i * hash2) >>> 1) % bitCount;
+      if((bits[(int)(bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int getHashCount() {
+    return hashCount;
+  }
+
+  public long getBitCount() {
+    return bitCount;
+  }
+
+  /**
+   * 64 bit FNV-1a of the characters, also used as a compact fingerprint of the string.
+   */
+  static long hash(CharSequence value) {
+    long hash = 0xcbf29ce484222325L;
+    for(int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      hash = (hash ^ (c & 0xff)) * 0x100000001b3L;
+      hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+    }
+    return mix(hash);
+  }
+
+  /**
+   * The MurmurHash3 finaliser, spreading every input bit across the output.
+   */
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
@@ -0,0 +1,301 @@
+package com.twock.ranking;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.signum;
+import static java.lang.Math.sqrt;
+
+/**
+ * Compares ranking models by how well ratings fitted to some matches predict the results of others, the prediction
+ * being the difference between the two teams' ratings.  Held out matches between teams that are not linked by the
+ * fitted matches cannot be predicted, and are counted as skipped.
+ * <p/>
+ * Each model's ratings are in its own units of relative skill, which only match goal difference for the plain model, so
+ * each predicted rating difference is mapped back to a goal difference through the model's skill for every whole goal
+ * difference, interpolating between them, and scored against the held out goal difference.  The errors are then in
+ * goals for every model, and can be compared across models, as can how often each predicts the winner.
+ * <p/>
+ * The models only differ in how they calculate each pairing's relative skill, so the pairings and match groups of
+ * each fold are built once and shared by every model, and every fold and model pair is then solved in parallel.
+ *
+ * @author Chris Pearson
+ */
+public class CrossValidator {
+  private static final Logger log = LoggerFactory.getLogger(CrossValidator.class);
+  private final List<Match> matches;
+  private final ExecutorService executor;
+  private final MultigridSolver solver = new MultigridSolver();
+
+  /**
+   * @param matches every match to fit and predict
+   * @param executor runs the folds, not shut down here
+   */
+  public CrossValidator(List<Match> matches, ExecutorService executor) {
+    this.matches = matches;
+    this.executor = executor;
+  }
+
+  /**
+   * Split the matches at random into folds, and predict each fold from the others.
+   *
+   * @param folds number of folds, at least 2
+   * @param seed seed of the random split, so that runs can be repeated
+   * @return the score of each model over every fold, in model order
+   */
+  public List<ModelScore> kFold(int folds, long seed, List<RankerModel> models) throws InterruptedException {
+    if(folds < 2) {
+      throw new IllegalArgumentException("Cross validation needs at least 2 folds, got " + folds);
+    }
+    List<Match> shuffled = new ArrayList<>(matches);
+    Collections.shuffle(shuffled, new Random(seed));
+    List<List<Match>> training = new ArrayList<>(folds);
+    List<List<Match>> testing = new ArrayList<>(folds);
+    for(int fold = 0; fold < folds; fold++) {
+      training.add(new ArrayList<Match>());
+      testing.add(new ArrayList<Match>());
+    }
+    for(int i = 0; i < shuffled.size(); i++) {
+      for(int fold = 0; fold < folds; fold++) {
+        (i % folds == fold ? testing : training).get(fold).add(shuffled.get(i));
+      }
+    }
+    return evaluate(training, testing, models);
+  }
+
+  /**
+   * Predict the matches played on or after the cutoff from those played before it.
+   *
+   * @return the score of each model, in model order
+   */
+  public List<ModelScore> byDate(LocalDate cutoff, List<RankerModel> models) throws InterruptedException {
+    List<Match> training = new ArrayList<>();
+    List<Match> testing = new ArrayList<>();
+    for(Match match : matches) {
+      (match.getDate().isBefore(cutoff) ? training : testing).add(match);
+    }
+    return evaluate(Collections.singletonList(training), Collections.singletonList(testing), models);
+  }
+
+  private List<ModelScore> evaluate(List<List<Match>> training, final List<List<Match>> testing, List<RankerModel> models) throws InterruptedException {
+    long start = System.nanoTime();
+    List<Callable<Fold>> foldTasks = new ArrayList<>();
+    for(final List<Match> foldMatches : training) {
+      foldTasks.add(new Callable<Fold>() {
+        @Override
+        public Fold call() {
+          return new Fold(foldMatches);
+        }
+      });
+    }
+    List<Fold> folds = getAll(executor.invokeAll(foldTasks));
+    int maxGoalDifference = 1;
+    for(Match match : matches) {
+      maxGoalDifference = Math.max(maxGoalDifference, abs(match.getTeam1Score() - match.getTeam2Score()));
+    }
+    List<Callable<ModelScore>> scoreTasks = new ArrayList<>();
+    for(final RankerModel model : models) {
+      final PlainRanker ranker = model.create();
+      final GoalScale scale = new GoalScale(model, ranker, maxGoalDifference);
+      for(int fold = 0; fold < folds.size(); fold++) {
+        final Fold thisFold = folds.get(fold);
+        final List<Match> foldTesting = testing.get(fold);
+        scoreTasks.add(new Callable<ModelScore>() {
+          @Override
+          public ModelScore call() {
+            return thisFold.score(model, ranker, scale, foldTesting);
+          }
+        });
+      }
+    }
+    List<ModelScore> foldScores = getAll(executor.invokeAll(scoreTasks));
+    List<ModelScore> result = new ArrayList<>(models.size());
+    for(int model = 0; model < models.size(); model++) {
+      ModelScore total = new ModelScore(models.get(model));
+      for(ModelScore foldScore : foldScores.subList(model * folds.size(), (model + 1) * folds.size())) {
+        total.add(foldScore);
+      }
+      result.add(total);
+    }
+    log.info("Evaluated {} models over {} folds of {} matches in {}ms: {}", models.size(), folds.size(), matches.size(), (System.nanoTime() - start) / 1000000, result);
+    return result;
+  }
+
+  private static <T> List<T> getAll(List<Future<T>> futures) throws InterruptedException {
+    List<T> result = new ArrayList<>(futures.size());
+    for(Future<T> future : futures) {
+      try {
+        result.add(future.get());
+      } catch(ExecutionException e) {
+        throw new RuntimeException("Cross validation failed", e.getCause());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The pairings and match groups of one fold's fitted matches, only read once built.
+   */
+  private class Fold {
+    private final PairingGroups groups;
+
+    private Fold(List<Match> foldMatches) {
+      groups = new PairingGroups(MatchUtils.getPairings(foldMatches));
+    }
+
+    /**
+     * Fit the model to this fold's matches and score its predictions of the held out matches.
+     */
+    private ModelScore score(RankerModel model, PlainRanker ranker, GoalScale scale, List<Match> heldOut) {
+      double[] ratings = groups.solve(ranker, solver);
+      ModelScore result = new ModelScore(model);
+      for(Match match : heldOut) {
+        int team1 = groups.getTeamIndex(match.getTeam1());
+        int team2 = groups.getTeamIndex(match.getTeam2());
+        if(team1 == -1 || team2 == -1 || groups.getGroup(team1) != groups.getGroup(team2)) {
+          result.skipped++;
+        } else {
+          result.addPrediction(scale.toGoalDifference(ratings[team1] - ratings[team2]), match.getTeam1Score() - match.getTeam2Score());
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * A model's relative skill for each whole goal difference in a single match, to map predicted skills back to goals.
+   */
+  private static class GoalScale {
+    private final int maxGoalDifference;
+    private final double[] skills;
+
+    private GoalScale(RankerModel model, PlainRanker ranker, int maxGoalDifference) {
+      this.maxGoalDifference = maxGoalDifference;
+      skills = new double[2 * maxGoalDifference + 1];
+      for(int goals = -maxGoalDifference; goals <= maxGoalDifference; goals++) {
+        skills[goals + maxGoalDifference] = ranker.calculateRelativeSkill(Math.max(goals, 0), Math.max(-goals, 0), 1);
+        if(goals > -maxGoalDifference && skills[goals + maxGoalDifference] <= skills[goals + maxGoalDifference - 1]) {
+          throw new IllegalArgumentException("Model " + model + " does not give a larger skill to a " + goals + " goal difference than to " + (goals - 1) + ", so cannot be mapped back to goals");
+        }
+      }
+    }
+
+    /**
+     * @return the goal difference the model would give this skill for a single match, interpolating linearly between
+     * whole goal differences and extending the outermost steps beyond them
+     */
+    private double toGoalDifference(double skill) {
+      int low = 0;
+      int high = skills.length - 1;
+      // find the step of the scale containing the skill, or the outermost step
+      while(high - low > 1) {
+        int middle = (low + high) >>> 1;
+        if(skill < skills[middle]) {
+          high = middle;
+        } else {
+          low = middle;
+        }
+      }
+      return low - maxGoalDifference + (skill - skills[low]) / (skills[high] - skills[low]);
+    }
+  }
+
+  public static class ModelScore {
+    private final RankerModel model;
+    private int predicted;
+    private int skipped;
+    private int decided;
+    private int correctWinners;
+    private double squaredError;
+    private double absoluteError;
+
+    private ModelScore(RankerModel model) {
+      this.model = model;
+    }
+
+    /**
+     * @param predictedGoalDifference difference between the teams' ratings, mapped back to goals
+     * @param goalDifference actual goal difference
+     */
+    private void addPrediction(double predictedGoalDifference, int goalDifference) {
+      double error = predictedGoalDifference - goalDifference;
+      squaredError += error * error;
+      absoluteError += abs(error);
+      predicted++;
+      if(goalDifference != 0) {
+        decided++;
+        if(signum(predictedGoalDifference) == signum(goalDifference)) {
+          correctWinners++;
+        }
+      }
+    }
+
+    private void add(ModelScore other) {
+      predicted += other.predicted;
+      skipped += other.skipped;
+      decided += other.decided;
+      correctWinners += other.correctWinners;
+      squaredError += other.squaredError;
+      absoluteError += other.absoluteError;
+    }
+
+    public RankerModel getModel() {
+      return model;
+    }
+
+    /**
+     * @return number of held out matches predicted
+     */
+    public int getPredicted() {
+      return predicted;
+    }
+
+    /**
+     * @return number of held out matches between teams not linked by the fitted matches
+     */
+    public int getSkipped() {
+      return skipped;
+    }
+
+    /**
+     * @return fraction of the predicted matches that were not drawn whose winner was predicted, NaN if all were drawn
+     */
+    public double getWinnerAccuracy() {
+      return (double)correctWinners / decided;
+    }
+
+    /**
+     * @return root mean squared error of the predicted goal differences, NaN if none were predicted
+     */
+    public double getRootMeanSquaredError() {
+      return sqrt(squaredError / predicted);
+    }
+
+    /**
+     * @return mean absolute error of the predicted goal differences, NaN if none were predicted
+     */
+    public double getMeanAbsoluteError() {
+      return absoluteError / predicted;
+    }
+
+    @Override
+    public String toString() {
+      return "ModelScore{" +
+        "model=" + model +
+        ", predicted=" + predicted +
+        ", skipped=" + skipped +
+        ", winnerAccuracy=" + getWinnerAccuracy() +
+        ", rmse=" + getRootMeanSquaredError() +
+        ", mae=" + getMeanAbsoluteError() +
+        '}';
+    }
+  }
+}
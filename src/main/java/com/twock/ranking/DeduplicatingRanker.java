@@ -0,0 +1,229 @@
+package com.twock.ranking;
+
+import java.util.List;
+
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drops matches that have already been added, so that a feed which redelivers matches can be replayed into a ranker
+ * safely.  A match is identified by its date, teams and scores, plus the feed's id for it when there is one; without
+ * an id two genuinely separate matches with the same result on the same day are taken to be one.
+ * <p/>
+ * A bloom filter answers most lookups, as a new match is almost always one it has definitely not seen.  Only when it
+ * reports a possible duplicate is the exact index checked: an open addressing table of the 64 bit fingerprint of every
+ * live match, 8 bytes a match rather than the match's key.  A new match is only dropped if its fingerprint collides
+ * with a live match's, which is about one chance in 10^13 per match at a million matches.
+ *
+ * @author Chris Pearson
+ */
+public class DeduplicatingRanker implements Ranker {
+  private static final Logger log = LoggerFactory.getLogger(DeduplicatingRanker.class);
+  private final Ranker ranker;
+  private final BloomFilter filter;
+  private final FingerprintSet added = new FingerprintSet();
+  private long duplicateCount;
+  private long exactLookups;
+
+  /**
+   * @param ranker ranker to add the distinct matches to
+   * @param expectedMatches number of distinct matches the bloom filter is sized for
+   * @param falsePositiveRate fraction of new matches that need an exact lookup, e.g. 0.01
+   */
+  public DeduplicatingRanker(Ranker ranker, long expectedMatches, double falsePositiveRate) {
+    this.ranker = ranker;
+    this.filter = new BloomFilter(expectedMatches, falsePositiveRate);
+  }
+
+  @Override
+  public void addMatch(LocalDate date, String team1, String team2, int score1, int score2) {
+    addMatch(null, date, team1, team2, score1, score2);
+  }
+
+  /**
+   * @param externalId the feed's id for the match, or null if it has none
+   * @return true if the match was added, false if it was a duplicate
+   */
+  public boolean addMatch(String externalId, LocalDate date, String team1, String team2, int score1, int score2) {
+    String key = getKey(externalId, new Match(date, team1, team2, score1, score2));
+    long fingerprint = BloomFilter.hash(key);
+    if(!filter.put(key)) {
+      // every bit was already set, so the match may have been added before
+      exactLookups++;
+      if(added.contains(fingerprint)) {
+        duplicateCount++;
+        log.debug("Dropped duplicate match {}", key);
+        return false;
+      }
+    }
+    added.add(fingerprint);
+    ranker.addMatch(date, team1, team2, score1, score2);
+    return true;
+  }
+
+  @Override
+  public boolean removeMatch(LocalDate date, String team1, String team2, int score1, int score2) {
+    return removeMatch(null, date, team1, team2, score1, score2);
+  }
+
+  /**
+   * Remove a match so that a later delivery of it is added again.
+   */
+  public boolean removeMatch(String externalId, LocalDate date, String team1, String team2, int score1, int score2) {
+    long fingerprint = BloomFilter.hash(getKey(externalId, new Match(date, team1, team2, score1, score2)));
+    if(!added.contains(fingerprint) || !ranker.removeMatch(date, team1, team2, score1, score2)) {
+      return false;
+    }
+    added.remove(fingerprint);
+    return true;
+  }
+
+  @Override
+  public boolean updateMatch(LocalDate date, String team1, String team2, int score1, int score2, int correctedScore1, int correctedScore2) {
+    return updateMatch(null, date, team1, team2, score1, score2, correctedScore1, correctedScore2);
+  }
+
+  public boolean updateMatch(String externalId, LocalDate date, String team1, String team2, int score1, int score2, int correctedScore1, int correctedScore2) {
+    long fingerprint = BloomFilter.hash(getKey(externalId, new Match(date, team1, team2, score1, score2)));
+    String correctedKey = getKey(externalId, new Match(date, team1, team2, correctedScore1, correctedScore2));
+    long correctedFingerprint = BloomFilter.hash(correctedKey);
+    if(!added.contains(fingerprint) || (correctedFingerprint != fingerprint && added.contains(correctedFingerprint))) {
+      // the corrected match is already there, so correcting this one would duplicate it
+      return false;
+    }
+    if(!ranker.updateMatch(date, team1, team2, score1, score2, correctedScore1, correctedScore2)) {
+      return false;
+    }
+    added.remove(fingerprint);
+    added.add(correctedFingerprint);
+    filter.put(correctedKey);
+    return true;
+  }
+
+  @Override
+  public int getGamesPlayed(String team) {
+    return ranker.getGamesPlayed(team);
+  }
+
+  @Override
+  public double getRanking(String team) {
+    return ranker.getRanking(team);
+  }
+
+  @Override
+  public List<String> getTeams() {
+    return ranker.getTeams();
+  }
+
+  /**
+   * @return number of distinct matches currently added
+   */
+  public long getAddedCount() {
+    return added.size();
+  }
+
+  /**
+   * @return number of matches dropped as duplicates
+   */
+  public long getDuplicateCount() {
+    return duplicateCount;
+  }
+
+  /**
+   * @return number of matches the bloom filter could not rule out, each checked against the exact index
+   */
+  public long getExactLookups() {
+    return exactLookups;
+  }
+
+  private static String getKey(String externalId, Match match) {
+    return (externalId == null ? "" : externalId) + '\u0000' + match.getDate()
+      + '\u0000' + match.getTeam1() + '\u0000' + match.getTeam2()
+      + '\u0000' + match.getTeam1Score() + '\u0000' + match.getTeam2Score();
+  }
+
+  @Override
+  public String toString() {
+    return "DeduplicatingRanker{" +
+      "added=" + added.size() +
+      ", duplicates=" + duplicateCount +
+      ", exactLookups=" + exactLookups +
+      '}';
+  }
+
+  /**
+   * A set of fingerprints in an open addressing table, so that no object is needed per match.  0 marks an empty slot,
+   * so the fingerprint 0 is stored as 1.
+   */
+  private static class FingerprintSet {
+    private long[] slots = new long[64];
+    private int size;
+
+    boolean contains(long fingerprint) {
+      return slots[find(nonZero(fingerprint))] != 0;
+    }
+
+    void add(long fingerprint) {
+      long value = nonZero(fingerprint);
+      int slot = find(value);
+      if(slots[slot] == 0) {
+        slots[slot] = value;
+        if(++size * 2 > slots.length) {
+          rehash();
+        }
+      }
+    }
+
+    void remove(long fingerprint) {
+      int slot = find(nonZero(fingerprint));
+      if(slots[slot] == 0) {
+        return;
+      }
+      slots[slot] = 0;
+      size--;
+      // move later entries of the run back into the gap, so that lookups never stop short of them
+      int mask = slots.length - 1;
+      int gap = slot;
+      for(int next = (slot + 1) & mask; slots[next] != 0; next = (next + 1) & mask) {
+        int home = getHome(slots[next], mask);
+        if(((next - home) & mask) >= ((next - gap) & mask)) {
+          slots[gap] = slots[next];
+          slots[next] = 0;
+          gap = next;
+        }
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    private int find(long value) {
+      int mask = slots.length - 1;
+      int slot = getHome(value, mask);
+      while(slots[slot] != 0 && slots[slot] != value) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    private void rehash() {
+      long[] old = slots;
+      slots = new long[old.length * 2];
+      for(long value : old) {
+        if(value != 0) {
+          slots[find(value)] = value;
+        }
+      }
+    }
+
+    private static int getHome(long value, int mask) {
+      return (int)(value ^ (value >>> 32)) & mask;
+    }
+
+    private static long nonZero(long fingerprint) {
+      return fingerprint == 0 ? 1 : fingerprint;
+    }
+  }
+}
@@ -0,0 +1,452 @@
+package com.twock.ranking;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps matches off the heap as fixed width records in a memory mapped file, so that a history far larger than the
+ * heap can be ranked.  Each record holds the two team ids, the day played and the two scores; the team names are kept
+ * in a side file of one name per line, the line number being the team id.  Pairing aggregates are built by streaming
+ * over the records without creating a Match for each, and then kept up to date as matches are added, removed and
+ * corrected.
+ * <p/>
+ * A new team's name is forced to disk before any record refers to it, as the mapped records may be written back at
+ * any time, so a crash cannot leave a record naming a team the side file lacks.  A partly written last name, from a
+ * crash while adding a team that no record yet refers to, is dropped when the store is opened.
+ * <p/>
+ * There is no index of the records, so removing or correcting a match scans the records, newest first as corrections
+ * are usually of recent matches, taking time proportional to the number of records in the worst case.
+ * <pre>
+ * header: int magic, int version, long record count
+ * record: int team1 id (-1 once removed), int team2 id, int days since 1970-01-01, short score1, short score2
+ * </pre>
+ *
+ * @author Chris Pearson
+ */
+public class MappedMatchStore implements Closeable {
+  private static final Logger log = LoggerFactory.getLogger(MappedMatchStore.class);
+  public static final int RECORD_BYTES = 16;
+  private static final int HEADER_BYTES = 16;
+  private static final int MAGIC = 0x524b4d53; // RKMS
+  private static final int VERSION = 1;
+  private static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+  private static final int REMOVED = -1;
+  private static final LocalDate EPOCH = new LocalDate(1970, 1, 1);
+  private final FileChannel channel;
+  private final int segmentBytes;
+  // the file is mapped in segments, as a single mapping cannot exceed 2GB
+  private final List<MappedByteBuffer> segments = new ArrayList<>();
+  private final FileChannel teamChannel;
+  private final List<String> teams = new ArrayList<>();
+  private final Map<String, Integer> teamIds = new HashMap<>();
+  private int[] gamesPlayed = new int[16];
+  private long recordCount;
+  // built by the first call to aggregate, and then updated by each change
+  private Aggregates aggregates;
+
+  public MappedMatchStore(Path file) throws IOException {
+    this(file, DEFAULT_SEGMENT_BYTES);
+  }
+
+  /**
+   * Open the store, creating it if the file does not exist.
+   *
+   * @param file the record file, with the team names kept alongside it in file.teams
+   * @param segmentBytes size of each mapping of the file, a multiple of RECORD_BYTES
+   */
+  public MappedMatchStore(Path file, int segmentBytes) throws IOException {
+    if(segmentBytes < HEADER_BYTES || segmentBytes % RECORD_BYTES != 0) {
+      throw new IllegalArgumentException("Segment size must be a multiple of " + RECORD_BYTES + " bytes, got " + segmentBytes);
+    }
+    this.segmentBytes = segmentBytes;
+    channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    Path teamFile = file.resolveSibling(file.getFileName() + ".teams");
+    try {
+      boolean created = channel.size() == 0;
+      MappedByteBuffer header = getSegment(0);
+      if(created) {
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putLong(8, 0);
+      } else {
+        if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+          throw new RuntimeException("Not a version " + VERSION + " match store: " + file);
+        }
+        recordCount = header.getLong(8);
+        if(recordCount < 0 || HEADER_BYTES + recordCount * RECORD_BYTES > channel.size()) {
+          throw new RuntimeException("Match store " + file + " claims " + recordCount + " records but is only " + channel.size() + " bytes long");
+        }
+        if(Files.exists(teamFile)) {
+          readTeams(teamFile);
+        }
+        gamesPlayed = new int[Math.max(16, teams.size())];
+        for(long record = 0; record < recordCount; record++) {
+          MappedByteBuffer segment = getSegment(record);
+          int offset = getOffset(record);
+          int team1 = segment.getInt(offset);
+          if(team1 != REMOVED) {
+            int team2 = segment.getInt(offset + 4);
+            checkTeamId(file, teamFile, record, team1);
+            checkTeamId(file, teamFile, record, team2);
+            gamesPlayed[team1]++;
+            gamesPlayed[team2]++;
+          }
+        }
+      }
+    } catch(IOException | RuntimeException e) {
+      // not opened, so nothing else will close it
+      channel.close();
+      throw e;
+    }
+    try {
+      teamChannel = FileChannel.open(teamFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    } catch(IOException e) {
+      channel.close();
+      throw e;
+    }
+    log.info("Opened match store {} with {} records and {} teams", file, recordCount, teams.size());
+  }
+
+  /**
+   * Read the team names, truncating the file after the last complete line if a crash left the last name part written.
+   */
+  private void readTeams(Path teamFile) throws IOException {
+    byte[] bytes = Files.readAllBytes(teamFile);
+    int length = bytes.length;
+    while(length > 0 && bytes[length - 1] != '\n') {
+      length--;
+    }
+    if(length < bytes.length) {
+      log.warn("Dropping part written team name from the end of {}", teamFile);
+      try (FileChannel truncate = FileChannel.open(teamFile, StandardOpenOption.WRITE)) {
+        truncate.truncate(length);
+        truncate.force(true);
+      }
+    }
+    int start = 0;
+    for(int end = 0; end < length; end++) {
+      if(bytes[end] == '\n') {
+        String team = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        teamIds.put(team, teams.size());
+        teams.add(team);
+        start = end + 1;
+      }
+    }
+  }
+
+  private void checkTeamId(Path file, Path teamFile, long record, int id) {
+    if(id < 0 || id >= teams.size()) {
+      throw new RuntimeException("Match store " + file + " is corrupt: record " + record + " refers to team id " + id + " but " + teamFile + " only names " + teams.size() + " teams");
+    }
+  }
+
+  public void add(LocalDate date, String team1, String team2, int score1, int score2) throws IOException {
+    checkScore(score1);
+    checkScore(score2);
+    boolean inOrder = team1.compareTo(team2) < 0;
+    int id1 = getTeamId(inOrder ? team1 : team2);
+    int id2 = getTeamId(inOrder ? team2 : team1);
+    long record = recordCount;
+    MappedByteBuffer segment = getSegment(record);
+    int offset = getOffset(record);
+    segment.putInt(offset, id1);
+    segment.putInt(offset + 4, id2);
+    segment.putInt(offset + 8, toDay(date));
+    segment.putShort(offset + 12, (short)(inOrder ? score1 : score2));
+    segment.putShort(offset + 14, (short)(inOrder ? score2 : score1));
+    // the count is only written once the record is complete
+    recordCount++;
+    getSegment(0).putLong(8, recordCount);
+    gamesPlayed[id1]++;
+    gamesPlayed[id2]++;
+    if(aggregates != null) {
+      aggregates.add(id1, id2, inOrder ? score1 : score2, inOrder ? score2 : score1, 1);
+    }
+  }
+
+  /**
+   * Mark the most recent matching record as removed.  The record's space is not reused.
+   *
+   * @return false if there was no such match
+   */
+  public boolean remove(LocalDate date, String team1, String team2, int score1, int score2) {
+    long record = find(date, team1, team2, score1, score2);
+    if(record == -1) {
+      return false;
+    }
+    MappedByteBuffer segment = getSegment(record);
+    int offset = getOffset(record);
+    int id1 = segment.getInt(offset);
+    int id2 = segment.getInt(offset + 4);
+    gamesPlayed[id1]--;
+    gamesPlayed[id2]--;
+    segment.putInt(offset, REMOVED);
+    if(aggregates != null) {
+      aggregates.add(id1, id2, -segment.getShort(offset + 12), -segment.getShort(offset + 14), -1);
+    }
+    return true;
+  }
+
+  /**
+   * Correct the scores of the most recent matching record in place.
+   *
+   * @return false if there was no such match
+   */
+  public boolean update(LocalDate date, String team1, String team2, int score1, int score2, int correctedScore1, int correctedScore2) {
+    checkScore(correctedScore1);
+    checkScore(correctedScore2);
+    long record = find(date, team1, team2, score1, score2);
+    if(record == -1) {
+      return false;
+    }
+    boolean inOrder = team1.compareTo(team2) < 0;
+    MappedByteBuffer segment = getSegment(record);
+    int offset = getOffset(record);
+    if(aggregates != null) {
+      int firstChange = (inOrder ? correctedScore1 : correctedScore2) - segment.getShort(offset + 12);
+      int secondChange = (inOrder ? correctedScore2 : correctedScore1) - segment.getShort(offset + 14);
+      aggregates.add(segment.getInt(offset), segment.getInt(offset + 4), firstChange, secondChange, 0);
+    }
+    segment.putShort(offset + 12, (short)(inOrder ? correctedScore1 : correctedScore2));
+    segment.putShort(offset + 14, (short)(inOrder ? correctedScore2 : correctedScore1));
+    return true;
+  }
+
+  private long find(LocalDate date, String team1, String team2, int score1, int score2) {
+    boolean inOrder = team1.compareTo(team2) < 0;
+    Integer id1 = teamIds.get(inOrder ? team1 : team2);
+    Integer id2 = teamIds.get(inOrder ? team2 : team1);
+    if(id1 == null || id2 == null) {
+      return -1;
+    }
+    int day = toDay(date);
+    short firstScore = (short)(inOrder ? score1 : score2);
+    short secondScore = (short)(inOrder ? score2 : score1);
+    for(long record = recordCount - 1; record >= 0; record--) {
+      MappedByteBuffer segment = getSegment(record);
+      int offset = getOffset(record);
+      if(segment.getInt(offset) == id1 && segment.getInt(offset + 4) == id2 && segment.getInt(offset + 8) == day
+        && segment.getShort(offset + 12) == firstScore && segment.getShort(offset + 14) == secondScore) {
+        return record;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * The first call streams over every record, totalling the scores of each pair of teams; the same aggregates are then
+   * returned by later calls, kept up to date by each add, remove and update in between.  A pairing whose matches have
+   * all been removed is kept with a match count of zero.
+   */
+  public Aggregates aggregate() {
+    if(aggregates == null) {
+      Aggregates result = new Aggregates();
+      for(long record = 0; record < recordCount; record++) {
+        MappedByteBuffer segment = getSegment(record);
+        int offset = getOffset(record);
+        int team1 = segment.getInt(offset);
+        if(team1 != REMOVED) {
+          result.add(team1, segment.getInt(offset + 4), segment.getShort(offset + 12), segment.getShort(offset + 14), 1);
+        }
+      }
+      aggregates = result;
+    }
+    return aggregates;
+  }
+
+  /**
+   * @return the name of each team id
+   */
+  public List<String> getTeamNames() {
+    return Collections.unmodifiableList(teams);
+  }
+
+  public int getGamesPlayed(String team) {
+    Integer id = teamIds.get(team);
+    return id == null ? 0 : gamesPlayed[id];
+  }
+
+  /**
+   * @return number of records written, including those since removed
+   */
+  public long getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Write any modified records through to disk; the team names are written as they are added.
+   */
+  public void flush() throws IOException {
+    for(MappedByteBuffer segment : segments) {
+      segment.force();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+    teamChannel.close();
+    channel.close();
+  }
+
+  private int getTeamId(String team) throws IOException {
+    Integer id = teamIds.get(team);
+    if(id == null) {
+      if(team.indexOf('\n') != -1 || team.indexOf('\r') != -1) {
+        throw new IllegalArgumentException("Team names cannot contain line breaks: " + team);
+      }
+      id = teams.size();
+      // the name is forced to disk before any record refers to it
+      ByteBuffer name = ByteBuffer.wrap((team + '\n').getBytes(StandardCharsets.UTF_8));
+      while(name.hasRemaining()) {
+        teamChannel.write(name);
+      }
+      teamChannel.force(false);
+      teams.add(team);
+      teamIds.put(team, id);
+      if(id == gamesPlayed.length) {
+        gamesPlayed = Arrays.copyOf(gamesPlayed, gamesPlayed.length * 2);
+      }
+    }
+    return id;
+  }
+
+  private static void checkScore(int score) {
+    if(score < 0 || score > Short.MAX_VALUE) {
+      throw new IllegalArgumentException("Score out of range: " + score);
+    }
+  }
+
+  private static int toDay(LocalDate date) {
+    return Days.daysBetween(EPOCH, date).getDays();
+  }
+
+  private MappedByteBuffer getSegment(long record) {
+    int index = (int)((HEADER_BYTES + record * RECORD_BYTES) / segmentBytes);
+    try {
+      while(segments.size() <= index) {
+        // mapping past the end of the file grows it
+        segments.add(channel.map(FileChannel.MapMode.READ_WRITE, (long)segments.size() * segmentBytes, segmentBytes));
+      }
+    } catch(IOException e) {
+      throw new RuntimeException("Unable to map segment " + index + " of the match store", e);
+    }
+    return segments.get(index);
+  }
+
+  private int getOffset(long record) {
+    return (int)((HEADER_BYTES + record * RECORD_BYTES) % segmentBytes);
+  }
+
+  /**
+   * The total scores of each pair of teams that have played, by team id.
+   */
+  public static class Aggregates {
+    private long[] keys = new long[64];
+    private int[] slots = new int[64];
+    private int pairingCount;
+    private int[] team1 = new int[16];
+    private int[] team2 = new int[16];
+    private int[] team1Total = new int[16];
+    private int[] team2Total = new int[16];
+    private int[] matchCount = new int[16];
+
+    private Aggregates() {
+      Arrays.fill(slots, -1);
+    }
+
+    private void add(int id1, int id2, int score1, int score2, int matches) {
+      int pairing = getPairing(id1, id2);
+      team1Total[pairing] += score1;
+      team2Total[pairing] += score2;
+      matchCount[pairing] += matches;
+    }
+
+    /**
+     * Find or create the pairing in an open addressing table, so that no key objects are needed.
+     */
+    private int getPairing(int id1, int id2) {
+      long key = ((long)id1 << 32) | (id2 & 0xffffffffL);
+      int mask = keys.length - 1;
+      int slot = (int)((key * 0x9e3779b97f4a7c15L) >>> 32) & mask;
+      while(slots[slot] != -1) {
+        if(keys[slot] == key) {
+          return slots[slot];
+        }
+        slot = (slot + 1) & mask;
+      }
+      int pairing = pairingCount++;
+      if(pairing == team1.length) {
+        team1 = Arrays.copyOf(team1, pairing * 2);
+        team2 = Arrays.copyOf(team2, pairing * 2);
+        team1Total = Arrays.copyOf(team1Total, pairing * 2);
+        team2Total = Arrays.copyOf(team2Total, pairing * 2);
+        matchCount = Arrays.copyOf(matchCount, pairing * 2);
+      }
+      team1[pairing] = id1;
+      team2[pairing] = id2;
+      keys[slot] = key;
+      slots[slot] = pairing;
+      if(pairingCount * 2 > keys.length) {
+        rehash();
+      }
+      return pairing;
+    }
+
+    private void rehash() {
+      long[] oldKeys = keys;
+      int[] oldSlots = slots;
+      keys = new long[oldKeys.length * 2];
+      slots = new int[oldSlots.length * 2];
+      Arrays.fill(slots, -1);
+      int mask = keys.length - 1;
+      for(int i = 0; i < oldKeys.length; i++) {
+        if(oldSlots[i] != -1) {
+          int slot = (int)((oldKeys[i] * 0x9e3779b97f4a7c15L) >>> 32) & mask;
+          while(slots[slot] != -1) {
+            slot = (slot + 1) & mask;
+          }
+          keys[slot] = oldKeys[i];
+          slots[slot] = oldSlots[i];
+        }
+      }
+    }
+
+    public int getPairingCount() {
+      return pairingCount;
+    }
+
+    public int getTeam1(int pairing) {
+      return team1[pairing];
+    }
+
+    public int getTeam2(int pairing) {
+      return team2[pairing];
+    }
+
+    public int getTeam1Total(int pairing) {
+      return team1Total[pairing];
+    }
+
+    public int getTeam2Total(int pairing) {
+      return team2Total[pairing];
+    }
+
+    public int getMatchCount(int pairing) {
+      return matchCount[pairing];
+    }
+  }
+}
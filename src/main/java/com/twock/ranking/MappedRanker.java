@@ -0,0 +1,127 @@
+package com.twock.ranking;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ranks the matches of a MappedMatchStore, so that only the pairing aggregates and ratings are held on the heap.  Each
+ * match group is solved with the MultigridSolver, using the model's relative skill for each pairing.
+ * <p/>
+ * The pairing aggregates are built by streaming over every stored match once, and each later change is then applied to
+ * them by the store, so a solve takes time proportional to the pairings rather than the matches.  Each solve starts
+ * from the previous ratings, so a few new matches only take a few solver iterations.
+ *
+ * @author Chris Pearson
+ */
+public class MappedRanker implements Ranker {
+  private static final Logger log = LoggerFactory.getLogger(MappedRanker.class);
+  private final MappedMatchStore store;
+  private final PlainRanker model;
+  private final RatingSolver solver = new MultigridSolver();
+  private Map<String, Double> ratings = new HashMap<>();
+  private boolean changed = true;
+
+  /**
+   * @param store store of the matches to rank, including any already in it
+   * @param model ranking model used to calculate the relative skill of each pairing
+   */
+  public MappedRanker(MappedMatchStore store, PlainRanker model) {
+    this.store = store;
+    this.model = model;
+  }
+
+  @Override
+  public void addMatch(LocalDate date, String team1, String team2, int score1, int score2) {
+    try {
+      store.add(date, team1, team2, score1, score2);
+    } catch(IOException e) {
+      throw new RuntimeException("Unable to store match " + team1 + " vs " + team2 + " on " + date, e);
+    }
+    changed = true;
+  }
+
+  @Override
+  public boolean removeMatch(LocalDate date, String team1, String team2, int score1, int score2) {
+    boolean removed = store.remove(date, team1, team2, score1, score2);
+    changed |= removed;
+    return removed;
+  }
+
+  @Override
+  public boolean updateMatch(LocalDate date, String team1, String team2, int score1, int score2, int correctedScore1, int correctedScore2) {
+    boolean updated = store.update(date, team1, team2, score1, score2, correctedScore1, correctedScore2);
+    changed |= updated;
+    return updated;
+  }
+
+  @Override
+  public int getGamesPlayed(String team) {
+    return store.getGamesPlayed(team);
+  }
+
+  @Override
+  public double getRanking(String team) {
+    if(changed) {
+      solve();
+      changed = false;
+    }
+    Double rating = ratings.get(team);
+    if(rating == null) {
+      throw new RuntimeException("Unable to find team " + team + " in any of the " + ratings.size() + " ranked teams");
+    }
+    return rating;
+  }
+
+  @Override
+  public List<String> getTeams() {
+    List<String> teams = new ArrayList<>();
+    for(String team : store.getTeamNames()) {
+      if(store.getGamesPlayed(team) > 0) {
+        teams.add(team);
+      }
+    }
+    Collections.sort(teams);
+    return teams;
+  }
+
+  private void solve() {
+    long start = System.nanoTime();
+    MappedMatchStore.Aggregates aggregates = store.aggregate();
+    // pairings whose matches have all been removed no longer link their teams
+    int pairingCount = 0;
+    for(int pairing = 0; pairing < aggregates.getPairingCount(); pairing++) {
+      if(aggregates.getMatchCount(pairing) > 0) {
+        pairingCount++;
+      }
+    }
+    double[] skill = new double[pairingCount];
+    int[] team1Ids = new int[pairingCount];
+    int[] team2Ids = new int[pairingCount];
+    int index = 0;
+    for(int pairing = 0; pairing < aggregates.getPairingCount(); pairing++) {
+      if(aggregates.getMatchCount(pairing) > 0) {
+        skill[index] = model.calculateRelativeSkill(aggregates.getTeam1Total(pairing), aggregates.getTeam2Total(pairing), aggregates.getMatchCount(pairing));
+        team1Ids[index] = aggregates.getTeam1(pairing);
+        team2Ids[index] = aggregates.getTeam2(pairing);
+        index++;
+      }
+    }
+    PairingGroups groups = new PairingGroups(store.getTeamNames(), team1Ids, team2Ids);
+    double[] initialRatings = new double[groups.getTeams().size()];
+    for(int team = 0; team < initialRatings.length; team++) {
+      Double rating = ratings.get(groups.getTeams().get(team));
+      initialRatings[team] = rating == null ? Double.NaN : rating;
+    }
+    double[] solution = groups.solve(skill, initialRatings, solver);
+    Map<String, Double> result = new HashMap<>();
+    for(int team = 0; team < solution.length; team++) {
+      result.put(groups.getTeams().get(team), solution[team]);
+    }
+    ratings = result;
+    log.info("Solved {} teams from {} pairings of {} stored matches in {}ms", result.size(), skill.length, store.getRecordCount(), (System.nanoTime() - start) / 1000000);
+  }
+}
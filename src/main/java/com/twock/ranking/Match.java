@@ -67,6 +67,16 @@ public class Match {
     this.team2Score = team2Score;
   }
 
+  /**
+   * Matches are found again by this key rather than by equality, since a match can be changed through its setters while
+   * it is held in a collection.
+   *
+   * @return the date, teams and scores as they are now, the same for matches given their teams in either order
+   */
+  public String getKey() {
+    return date + "\u0000" + team1 + '\u0000' + team2 + '\u0000' + team1Score + '\u0000' + team2Score;
+  }
+
   @Override
   public String toString() {
     return "Match{" +
@@ -0,0 +1,17 @@
+package com.twock.ranking;
+
+import java.util.Map;
+
+/**
+ * Chooses the matches that make up one view of a MultiViewRanker.
+ *
+ * @author Chris Pearson
+ */
+public interface MatchFilter {
+  /**
+   * @param match match to test, not to be modified
+   * @param tags the tags the match was added with, e.g. division, season or venue
+   * @return true if the match belongs in the view
+   */
+  boolean accept(Match match, Map<String, String> tags);
+}
@@ -21,39 +21,184 @@ public abstract class MatchUtils {
     Map<String, List<Match>> matchGroups = new HashMap<String, List<Match>>();
     // link the matches
     for(Match match : matches) {
-      String team1 = match.getTeam1();
-      List<Match> matches1 = matchGroups.get(team1);
-      String team2 = match.getTeam2();
-      List<Match> matches2 = matchGroups.get(team2);
-      if(matches1 == null && matches2 == null) {
-        // neither team has played a match yet
-        List<Match> newMatch = new ArrayList<Match>();
-        newMatch.add(match);
-        matchGroups.put(team1, newMatch);
-        matchGroups.put(team2, newMatch);
-      } else if(matches1 == null) {
-        // team2 already has a match recorded
-        matchGroups.put(team1, matches2);
-        matches2.add(match);
-      } else if(matches2 == null) {
-        // team1 already has a match recorded
-        matchGroups.put(team2, matches1);
-        matches1.add(match);
-      } else if(matches1 == matches2) {
-        // team1 and team2 are already part of the same group
-        matches1.add(match);
-      } else {
-        // team1 and team2 are currently part of separate groups
-        matches1.addAll(matches2);
-        matches1.add(match);
-        // make all the teams that were pointing to matches2 point to matches1
-        for(Match groupMoveMatch : matches2) {
-          matchGroups.put(groupMoveMatch.getTeam1(), matches1);
-          matchGroups.put(groupMoveMatch.getTeam2(), matches1);
+      addToMatchGroups(matchGroups, match);
+    }
+    return matchGroups;
+  }
+
+  /**
+   * Link a single match into existing match groups, merging groups where the match joins them together.
+   *
+   * @param matchGroups map with team name as key, and list of matches for their group as value
+   * @param match match to add
+   * @return the group the match now belongs to
+   */
+  public static List<Match> addToMatchGroups(Map<String, List<Match>> matchGroups, Match match) {
+    String team1 = match.getTeam1();
+    List<Match> matches1 = matchGroups.get(team1);
+    String team2 = match.getTeam2();
+    List<Match> matches2 = matchGroups.get(team2);
+    if(matches1 == null && matches2 == null) {
+      // neither team has played a match yet
+      List<Match> newMatch = new ArrayList<Match>();
+      newMatch.add(match);
+      matchGroups.put(team1, newMatch);
+      matchGroups.put(team2, newMatch);
+      return newMatch;
+    } else if(matches1 == null) {
+      // team2 already has a match recorded
+      matchGroups.put(team1, matches2);
+      matches2.add(match);
+      return matches2;
+    } else if(matches2 == null) {
+      // team1 already has a match recorded
+      matchGroups.put(team2, matches1);
+      matches1.add(match);
+      return matches1;
+    } else if(matches1 == matches2) {
+      // team1 and team2 are already part of the same group
+      matches1.add(match);
+      return matches1;
+    } else {
+      // team1 and team2 are currently part of separate groups, merge the smaller into the larger
+      List<Match> target = matches1.size() >= matches2.size() ? matches1 : matches2;
+      List<Match> source = target == matches1 ? matches2 : matches1;
+      target.addAll(source);
+      target.add(match);
+      // make all the teams that were pointing to source point to target
+      for(Match groupMoveMatch : source) {
+        matchGroups.put(groupMoveMatch.getTeam1(), target);
+        matchGroups.put(groupMoveMatch.getTeam2(), target);
+      }
+      return target;
+    }
+  }
+
+  /**
+   * @param key match key as given by Match.getKey
+   * @return the index of the first match with the key, or -1 if there is none
+   */
+  public static int indexOf(List<Match> matches, String key) {
+    for(int i = 0; i < matches.size(); i++) {
+      if(matches.get(i).getKey().equals(key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Unlink a single match from its match group, splitting the group where the match was the only link between two
+   * parts of it.  The largest part keeps the original group list, and teams with no matches left are unlinked.
+   *
+   * @param matchGroups map with team name as key, and list of matches for their group as value
+   * @param match match to remove
+   * @return the groups the match's group now consists of, empty if no matches are left in it, or null if the match was
+   * not found
+   */
+  public static List<List<Match>> removeFromMatchGroups(Map<String, List<Match>> matchGroups, Match match) {
+    List<Match> group = matchGroups.get(match.getTeam1());
+    int index = group == null ? -1 : indexOf(group, match.getKey());
+    if(index == -1) {
+      return null;
+    }
+    group.remove(index);
+    // list each team's matches in the group, then find the parts of the group still linked together
+    Map<String, List<Match>> teamMatches = new HashMap<String, List<Match>>();
+    for(Match groupMatch : group) {
+      addTeamMatch(teamMatches, groupMatch.getTeam1(), groupMatch);
+      addTeamMatch(teamMatches, groupMatch.getTeam2(), groupMatch);
+    }
+    for(String team : Arrays.asList(match.getTeam1(), match.getTeam2())) {
+      if(!teamMatches.containsKey(team)) {
+        matchGroups.remove(team);
+      }
+    }
+    // label each team with the part it is in, then share out the matches keeping their order
+    Map<String, Integer> partIndexes = new HashMap<String, Integer>();
+    int partCount = 0;
+    for(String start : teamMatches.keySet()) {
+      if(!partIndexes.containsKey(start)) {
+        labelLinkedTeams(teamMatches, start, partCount++, partIndexes);
+      }
+    }
+    List<List<Match>> parts = new ArrayList<List<Match>>(partCount);
+    for(int i = 0; i < partCount; i++) {
+      parts.add(new ArrayList<Match>());
+    }
+    for(Match groupMatch : group) {
+      parts.get(partIndexes.get(groupMatch.getTeam1())).add(groupMatch);
+    }
+    if(parts.size() <= 1) {
+      return parts.isEmpty() ? parts : Collections.singletonList(group);
+    }
+    // the largest part keeps the group list, so that solves of it can carry on from its ratings
+    List<Match> largest = parts.get(0);
+    for(List<Match> part : parts) {
+      if(part.size() > largest.size()) {
+        largest = part;
+      }
+    }
+    List<List<Match>> result = new ArrayList<List<Match>>(parts.size());
+    for(List<Match> part : parts) {
+      List<Match> target = part;
+      if(part == largest) {
+        group.clear();
+        group.addAll(part);
+        target = group;
+      }
+      for(Match partMatch : part) {
+        matchGroups.put(partMatch.getTeam1(), target);
+        matchGroups.put(partMatch.getTeam2(), target);
+      }
+      result.add(target);
+    }
+    return result;
+  }
+
+  private static void addTeamMatch(Map<String, List<Match>> teamMatches, String team, Match match) {
+    List<Match> matches = teamMatches.get(team);
+    if(matches == null) {
+      matches = new ArrayList<Match>();
+      teamMatches.put(team, matches);
+    }
+    matches.add(match);
+  }
+
+  private static void labelLinkedTeams(Map<String, List<Match>> teamMatches, String start, int partIndex, Map<String, Integer> partIndexes) {
+    Deque<String> queue = new ArrayDeque<String>();
+    partIndexes.put(start, partIndex);
+    queue.add(start);
+    while(!queue.isEmpty()) {
+      for(Match match : teamMatches.get(queue.remove())) {
+        for(String team : Arrays.asList(match.getTeam1(), match.getTeam2())) {
+          if(!partIndexes.containsKey(team)) {
+            partIndexes.put(team, partIndex);
+            queue.add(team);
+          }
         }
       }
     }
-    return matchGroups;
+  }
+
+  /**
+   * Aggregate the matches between each pair of teams.
+   *
+   * @param matches input list of matches
+   * @return one pairing per pair of teams that have played, in the order each pair first played
+   */
+  public static List<Pairing> getPairings(Collection<Match> matches) {
+    Map<String, Pairing> pairings = new LinkedHashMap<String, Pairing>();
+    for(Match match : matches) {
+      String key = match.getTeam1() + '\u0000' + match.getTeam2();
+      Pairing pairing = pairings.get(key);
+      if(pairing == null) {
+        pairing = new Pairing(match.getTeam1(), match.getTeam2());
+        pairings.put(key, pairing);
+      }
+      pairing.add(match);
+    }
+    return new ArrayList<Pairing>(pairings.values());
   }
 
   public static List<String> getSortedTeamList(Collection<Match> matches) {
@@ -0,0 +1,228 @@
+package com.twock.ranking;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ranks many subsets of the same matches, such as per division, season or venue leaderboards, from a single ingestion.
+ * Each view is a named MatchFilter over the matches and their tags.  Team names and tag sets are interned as matches are
+ * added, so every view shares one copy of each.  Only the views that accept a new match, and new views, are re-solved;
+ * their pairing aggregates are built together in one pass over the matches before they are solved concurrently.
+ *
+ * @author Chris Pearson
+ */
+public class MultiViewRanker {
+  private static final Logger log = LoggerFactory.getLogger(MultiViewRanker.class);
+  private final PlainRanker model;
+  private final ExecutorService executor;
+  private final RatingSolver solver = new MultigridSolver();
+  private final Map<String, MatchFilter> filters = new LinkedHashMap<>();
+  private final Map<String, String> teamNames = new HashMap<>();
+  private final Map<Map<String, String>, Map<String, String>> tagSets = new HashMap<>();
+  private final List<Match> matches = new ArrayList<>();
+  private final List<Map<String, String>> matchTags = new ArrayList<>();
+  private final Set<String> changedViews = new LinkedHashSet<>();
+  private Map<String, View> views = Collections.emptyMap();
+
+  /**
+   * @param model ranking model used to calculate the relative skill of each pairing
+   * @param executor solves the views, not shut down here
+   */
+  public MultiViewRanker(PlainRanker model, ExecutorService executor) {
+    this.model = model;
+    this.executor = executor;
+  }
+
+  /**
+   * @return a filter accepting the matches tagged with the value
+   */
+  public static MatchFilter tagEquals(final String tag, final String value) {
+    return new MatchFilter() {
+      @Override
+      public boolean accept(Match match, Map<String, String> tags) {
+        return value.equals(tags.get(tag));
+      }
+    };
+  }
+
+  public void addView(String name, MatchFilter filter) {
+    if(filters.containsKey(name)) {
+      throw new IllegalArgumentException("There is already a view called " + name);
+    }
+    filters.put(name, filter);
+    changedViews.add(name);
+  }
+
+  public void addMatch(LocalDate date, String team1, String team2, int score1, int score2, Map<String, String> tags) {
+    Match match = new Match(date, intern(team1), intern(team2), score1, score2);
+    matches.add(match);
+    Map<String, String> tagSet = tagSets.get(tags);
+    if(tagSet == null) {
+      tagSet = Collections.unmodifiableMap(new HashMap<>(tags));
+      tagSets.put(tagSet, tagSet);
+    }
+    matchTags.add(tagSet);
+    for(Map.Entry<String, MatchFilter> filter : filters.entrySet()) {
+      if(filter.getValue().accept(match, tagSet)) {
+        changedViews.add(filter.getKey());
+      }
+    }
+  }
+
+  private String intern(String team) {
+    String result = teamNames.get(team);
+    if(result == null) {
+      teamNames.put(team, team);
+      result = team;
+    }
+    return result;
+  }
+
+  public View getView(String name) throws InterruptedException {
+    View view = getViews().get(name);
+    if(view == null) {
+      throw new RuntimeException("Unable to find view " + name + " in any of the " + filters.size() + " views");
+    }
+    return view;
+  }
+
+  /**
+   * @return every view, keyed by name in the order they were added, with any views that have new matches re-solved
+   */
+  public Map<String, View> getViews() throws InterruptedException {
+    if(!changedViews.isEmpty()) {
+      solve();
+      changedViews.clear();
+    }
+    return views;
+  }
+
+  private void solve() throws InterruptedException {
+    long start = System.nanoTime();
+    List<String> names = new ArrayList<>(changedViews);
+    List<MatchFilter> viewFilters = new ArrayList<>(names.size());
+    for(String name : names) {
+      viewFilters.add(filters.get(name));
+    }
+    List<Map<String, Pairing>> viewPairings = new ArrayList<>(names.size());
+    List<Map<String, Integer>> viewGamesPlayed = new ArrayList<>(names.size());
+    for(int view = 0; view < names.size(); view++) {
+      viewPairings.add(new LinkedHashMap<String, Pairing>());
+      viewGamesPlayed.add(new HashMap<String, Integer>());
+    }
+    // one pass over the matches, adding each to the pairings of every view that accepts it
+    for(int i = 0; i < matches.size(); i++) {
+      Match match = matches.get(i);
+      Map<String, String> tags = matchTags.get(i);
+      String key = null;
+      for(int view = 0; view < viewFilters.size(); view++) {
+        if(viewFilters.get(view).accept(match, tags)) {
+          if(key == null) {
+            key = match.getTeam1() + '\u0000' + match.getTeam2();
+          }
+          Map<String, Pairing> pairings = viewPairings.get(view);
+          Pairing pairing = pairings.get(key);
+          if(pairing == null) {
+            pairing = new Pairing(match.getTeam1(), match.getTeam2());
+            pairings.put(key, pairing);
+          }
+          pairing.add(match);
+          incrementGamesPlayed(viewGamesPlayed.get(view), match.getTeam1());
+          incrementGamesPlayed(viewGamesPlayed.get(view), match.getTeam2());
+        }
+      }
+    }
+    List<Callable<View>> tasks = new ArrayList<>(names.size());
+    for(int view = 0; view < names.size(); view++) {
+      final String name = names.get(view);
+      final List<Pairing> pairings = new ArrayList<>(viewPairings.get(view).values());
+      final Map<String, Integer> gamesPlayed = viewGamesPlayed.get(view);
+      tasks.add(new Callable<View>() {
+        @Override
+        public View call() {
+          PairingGroups groups = new PairingGroups(pairings);
+          double[] solution = groups.solve(model, solver);
+          Map<String, Double> ratings = new HashMap<>();
+          for(int team = 0; team < solution.length; team++) {
+            ratings.put(groups.getTeams().get(team), solution[team]);
+          }
+          return new View(name, ratings, gamesPlayed);
+        }
+      });
+    }
+    Map<String, View> solved = new HashMap<>();
+    for(Future<View> future : executor.invokeAll(tasks)) {
+      try {
+        View view = future.get();
+        solved.put(view.getName(), view);
+      } catch(ExecutionException e) {
+        throw new RuntimeException("Unable to solve views", e.getCause());
+      }
+    }
+    Map<String, View> result = new LinkedHashMap<>();
+    for(String name : filters.keySet()) {
+      View view = solved.get(name);
+      result.put(name, view == null ? views.get(name) : view);
+    }
+    views = result;
+    log.info("Solved {} of {} views of {} matches and {} teams in {}ms", solved.size(), result.size(), matches.size(), teamNames.size(), (System.nanoTime() - start) / 1000000);
+  }
+
+  private static void incrementGamesPlayed(Map<String, Integer> gamesPlayed, String team) {
+    Integer played = gamesPlayed.get(team);
+    gamesPlayed.put(team, played == null ? 1 : played + 1);
+  }
+
+  /**
+   * The ratings of one view's matches, each match group averaging 50.
+   */
+  public static class View {
+    private final String name;
+    private final Map<String, Double> ratings;
+    private final Map<String, Integer> gamesPlayed;
+
+    private View(String name, Map<String, Double> ratings, Map<String, Integer> gamesPlayed) {
+      this.name = name;
+      this.ratings = ratings;
+      this.gamesPlayed = gamesPlayed;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public double getRanking(String team) {
+      Double rating = ratings.get(team);
+      if(rating == null) {
+        throw new RuntimeException("Unable to find team " + team + " in any of the " + ratings.size() + " teams in view " + name);
+      }
+      return rating;
+    }
+
+    public int getGamesPlayed(String team) {
+      Integer played = gamesPlayed.get(team);
+      return played == null ? 0 : played;
+    }
+
+    public List<String> getTeams() {
+      List<String> teams = new ArrayList<>(ratings.keySet());
+      Collections.sort(teams);
+      return teams;
+    }
+
+    @Override
+    public String toString() {
+      return "View{" +
+        "name='" + name + '\'' +
+        ", teams=" + ratings.size() +
+        '}';
+    }
+  }
+}
@@ -0,0 +1,455 @@
+package com.twock.ranking;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.sqrt;
+
+/**
+ * Solves the ratings as the sparse least squares normal equations L.r = b, where L is the Laplacian of the match graph,
+ * using conjugate gradients preconditioned by an aggregation multigrid V-cycle.  Each coarser level pairs every team
+ * with its most strongly connected neighbour, so long chains of weakly linked teams are corrected a whole region at a
+ * time rather than one team at a time, and each iteration costs time linear in the number of pairings.
+ *
+ * @author Chris Pearson
+ */
+public class MultigridSolver implements RatingSolver {
+  private static final Logger log = LoggerFactory.getLogger(MultigridSolver.class);
+  private static final int COARSEST_SIZE = 64;
+  private static final int MAX_DENSE_SIZE = 1000;
+  private static final double MIN_COARSENING = 0.9;
+  private static final double RELATIVE_RESIDUAL = 1e-10;
+  private static final double REGULARISATION = 1e-10;
+  private static final int MAX_ITERATIONS = 1000;
+  private static final int SMOOTHING_SWEEPS = 2;
+  private static final int COARSEST_SWEEPS = 20;
+
+  @Override
+  public double solve(int[] team1, int[] team2, double[] skill, double[] ratings, double tolerance, long timeBudgetNanos) {
+    return solve(team1, team2, skill, new int[0], new double[0], ratings, tolerance, timeBudgetNanos);
+  }
+
+  /**
+   * Solve the ratings of some teams while other teams they have played keep fixed ratings.  Each pairing with a fixed
+   * team is passed as an anchor: the rating that pairing alone would give the team, i.e. the fixed team's rating plus
+   * or minus the pairing's skill.  Without anchors the ratings are scaled to average 50.
+   *
+   * @param anchorTeams index of the team each anchor applies to
+   * @param anchorRatings the rating each anchor pulls its team towards
+   * @see #solve(int[], int[], double[], double[], double, long)
+   */
+  public double solve(int[] team1, int[] team2, double[] skill, int[] anchorTeams, double[] anchorRatings, double[] ratings, double tolerance, long timeBudgetNanos) {
+    int teamCount = ratings.length;
+    double[] diagonal = new double[teamCount];
+    double[] rhs = new double[teamCount];
+    double[] weights = new double[team1.length];
+    for(int pairing = 0; pairing < team1.length; pairing++) {
+      diagonal[team1[pairing]]++;
+      diagonal[team2[pairing]]++;
+      rhs[team1[pairing]] += skill[pairing];
+      rhs[team2[pairing]] -= skill[pairing];
+      weights[pairing] = 1;
+    }
+    for(int anchor = 0; anchor < anchorTeams.length; anchor++) {
+      diagonal[anchorTeams[anchor]]++;
+      rhs[anchorTeams[anchor]] += anchorRatings[anchor];
+    }
+    Level level = Level.fromEdges(teamCount, team1, team2, weights, diagonal);
+    boolean singular = anchorTeams.length == 0;
+    double stepSize = solve(level, rhs, ratings, singular, tolerance, timeBudgetNanos);
+    if(singular) {
+      // scale variables up to average around 50
+      double total = 0;
+      for(double rating : ratings) {
+        total += rating;
+      }
+      double increment = Ranker.INITIAL_RANKING - total / teamCount;
+      for(int team = 0; team < teamCount; team++) {
+        ratings[team] += increment;
+      }
+    }
+    return stepSize;
+  }
+
+  /**
+   * Solve the pairings' graph Laplacian against any right hand side, rather than one made from pairing skills, e.g. to
+   * apply its pseudo-inverse to a vector.  The right hand side must sum to zero over each match group.
+   *
+   * @param x starting point, replaced with the solution averaging zero
+   * @return the final step size, 0 if the solution is exact
+   */
+  public double solveLaplacian(int[] team1, int[] team2, double[] rhs, double[] x, double tolerance, long timeBudgetNanos) {
+    int teamCount = x.length;
+    double[] diagonal = new double[teamCount];
+    double[] weights = new double[team1.length];
+    for(int pairing = 0; pairing < team1.length; pairing++) {
+      diagonal[team1[pairing]]++;
+      diagonal[team2[pairing]]++;
+      weights[pairing] = 1;
+    }
+    Level level = Level.fromEdges(teamCount, team1, team2, weights, diagonal);
+    double stepSize = solve(level, rhs, x, true, tolerance, timeBudgetNanos);
+    double mean = 0;
+    for(double value : x) {
+      mean += value;
+    }
+    mean /= teamCount;
+    for(int team = 0; team < teamCount; team++) {
+      x[team] -= mean;
+    }
+    return stepSize;
+  }
+
+  /**
+   * Preconditioned conjugate gradients on level.x = rhs.
+   *
+   * @param singular true when the system only determines x up to a constant, as for a pure Laplacian
+   */
+  private double solve(Level level, double[] rhs, double[] x, boolean singular, double tolerance, long timeBudgetNanos) {
+    long start = System.nanoTime();
+    level.buildHierarchy();
+    int n = x.length;
+    double rhsNorm = sqrt(dot(rhs, rhs));
+    if(rhsNorm == 0) {
+      // nothing separates the teams, so every rating is equal
+      Arrays.fill(x, 0);
+      return 0;
+    }
+    double[] r = new double[n];
+    level.multiply(x, r);
+    for(int i = 0; i < n; i++) {
+      r[i] = rhs[i] - r[i];
+    }
+    double[] z = new double[n];
+    precondition(level, r, z, singular);
+    double[] p = Arrays.copyOf(z, n);
+    double[] ap = new double[n];
+    double rz = dot(r, z);
+    double step = Double.MAX_VALUE;
+    for(int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+      double residualNorm = sqrt(dot(r, r));
+      if(residualNorm <= RELATIVE_RESIDUAL * rhsNorm) {
+        log.debug("Converged {} teams in {} iterations", n, iteration);
+        return 0;
+      }
+      if(step < tolerance || System.nanoTime() - start > timeBudgetNanos) {
+        log.debug("Stopped {} teams after {} iterations with step {} and residual {}", n, iteration, step, residualNorm / rhsNorm);
+        return step;
+      }
+      level.multiply(p, ap);
+      double alpha = rz / dot(p, ap);
+      double biggest = 0;
+      for(int i = 0; i < n; i++) {
+        x[i] += alpha * p[i];
+        r[i] -= alpha * ap[i];
+        biggest = max(biggest, abs(alpha * p[i]));
+      }
+      step = biggest;
+      precondition(level, r, z, singular);
+      double rzNew = dot(r, z);
+      double beta = rzNew / rz;
+      rz = rzNew;
+      for(int i = 0; i < n; i++) {
+        p[i] = z[i] + beta * p[i];
+      }
+    }
+    log.warn("Failed to converge {} teams in {} iterations", n, MAX_ITERATIONS);
+    return step;
+  }
+
+  private static void precondition(Level level, double[] r, double[] z, boolean singular) {
+    Arrays.fill(z, 0);
+    level.vCycle(r, z);
+    if(singular) {
+      // keep the correction free of the constant null space
+      double mean = 0;
+      for(double value : z) {
+        mean += value;
+      }
+      mean /= z.length;
+      for(int i = 0; i < z.length; i++) {
+        z[i] -= mean;
+      }
+    }
+  }
+
+  private static double dot(double[] a, double[] b) {
+    double result = 0;
+    for(int i = 0; i < a.length; i++) {
+      result += a[i] * b[i];
+    }
+    return result;
+  }
+
+  /**
+   * A symmetric sparse matrix with its diagonal held separately, plus the coarser levels below it.
+   */
+  static class Level {
+    private final int size;
+    private final int[] rowStart;
+    private final int[] columns;
+    private final double[] values;
+    private final double[] diagonal;
+    private int[] aggregates;
+    private Level coarse;
+    private double[][] cholesky;
+    private boolean built;
+
+    Level(int size, int[] rowStart, int[] columns, double[] values, double[] diagonal) {
+      this.size = size;
+      this.rowStart = rowStart;
+      this.columns = columns;
+      this.values = values;
+      this.diagonal = diagonal;
+    }
+
+    /**
+     * Build a Laplacian-like level where each edge (from, to, weight) contributes -weight off the diagonal.  Each
+     * unordered pair must appear at most once.
+     */
+    static Level fromEdges(int size, int[] from, int[] to, double[] weights, double[] diagonal) {
+      int[] rowStart = new int[size + 1];
+      for(int edge = 0; edge < from.length; edge++) {
+        rowStart[from[edge] + 1]++;
+        rowStart[to[edge] + 1]++;
+      }
+      for(int row = 0; row < size; row++) {
+        rowStart[row + 1] += rowStart[row];
+      }
+      int[] next = Arrays.copyOf(rowStart, size);
+      int[] columns = new int[rowStart[size]];
+      double[] values = new double[rowStart[size]];
+      for(int edge = 0; edge < from.length; edge++) {
+        int a = from[edge];
+        int b = to[edge];
+        columns[next[a]] = b;
+        values[next[a]++] = -weights[edge];
+        columns[next[b]] = a;
+        values[next[b]++] = -weights[edge];
+      }
+      return new Level(size, rowStart, columns, values, diagonal);
+    }
+
+    void multiply(double[] x, double[] result) {
+      for(int row = 0; row < size; row++) {
+        double total = diagonal[row] * x[row];
+        for(int i = rowStart[row]; i < rowStart[row + 1]; i++) {
+          total += values[i] * x[columns[i]];
+        }
+        result[row] = total;
+      }
+    }
+
+    void buildHierarchy() {
+      if(built) {
+        return;
+      }
+      built = true;
+      if(size > COARSEST_SIZE) {
+        aggregates = new int[size];
+        int coarseSize = aggregate(aggregates);
+        if(coarseSize < size * MIN_COARSENING) {
+          coarse = galerkin(coarseSize);
+          coarse.buildHierarchy();
+          return;
+        }
+        aggregates = null;
+      }
+      if(size <= MAX_DENSE_SIZE) {
+        cholesky = factorise();
+      }
+    }
+
+    /**
+     * Pair each team with its most strongly connected unpaired neighbour; teams whose neighbours are all paired join
+     * their most strongly connected neighbour's aggregate.
+     *
+     * @return number of aggregates
+     */
+    private int aggregate(int[] result) {
+      Arrays.fill(result, -1);
+      int count = 0;
+      for(int row = 0; row < size; row++) {
+        if(result[row] != -1) {
+          continue;
+        }
+        int bestFree = -1;
+        double bestFreeWeight = 0;
+        int bestAny = -1;
+        double bestAnyWeight = 0;
+        for(int i = rowStart[row]; i < rowStart[row + 1]; i++) {
+          int column = columns[i];
+          double weight = -values[i];
+          if(column == row) {
+            continue;
+          }
+          if(result[column] == -1 && weight > bestFreeWeight) {
+            bestFree = column;
+            bestFreeWeight = weight;
+          }
+          if(result[column] != -1 && weight > bestAnyWeight) {
+            bestAny = column;
+            bestAnyWeight = weight;
+          }
+        }
+        if(bestFree != -1) {
+          result[row] = result[bestFree] = count++;
+        } else if(bestAny != -1) {
+          result[row] = result[bestAny];
+        } else {
+          result[row] = count++;
+        }
+      }
+      return count;
+    }
+
+    /**
+     * @return the coarse level operator P'.A.P, where P maps each team to its aggregate
+     */
+    private Level galerkin(int coarseSize) {
+      // list the members of each aggregate
+      int[] memberStart = new int[coarseSize + 1];
+      for(int row = 0; row < size; row++) {
+        memberStart[aggregates[row] + 1]++;
+      }
+      for(int i = 0; i < coarseSize; i++) {
+        memberStart[i + 1] += memberStart[i];
+      }
+      int[] members = new int[size];
+      int[] next = Arrays.copyOf(memberStart, coarseSize);
+      for(int row = 0; row < size; row++) {
+        members[next[aggregates[row]]++] = row;
+      }
+      // accumulate each coarse row using a marker of where each column was last written
+      double[] coarseDiagonal = new double[coarseSize];
+      int[] coarseRowStart = new int[coarseSize + 1];
+      int[] coarseColumns = new int[columns.length];
+      double[] coarseValues = new double[columns.length];
+      int[] marker = new int[coarseSize];
+      Arrays.fill(marker, -1);
+      int count = 0;
+      for(int coarseRow = 0; coarseRow < coarseSize; coarseRow++) {
+        int rowBegin = count;
+        for(int m = memberStart[coarseRow]; m < memberStart[coarseRow + 1]; m++) {
+          int row = members[m];
+          coarseDiagonal[coarseRow] += diagonal[row];
+          for(int i = rowStart[row]; i < rowStart[row + 1]; i++) {
+            int coarseColumn = aggregates[columns[i]];
+            if(coarseColumn == coarseRow) {
+              coarseDiagonal[coarseRow] += values[i];
+            } else if(marker[coarseColumn] < rowBegin) {
+              marker[coarseColumn] = count;
+              coarseColumns[count] = coarseColumn;
+              coarseValues[count++] = values[i];
+            } else {
+              coarseValues[marker[coarseColumn]] += values[i];
+            }
+          }
+        }
+        coarseRowStart[coarseRow + 1] = count;
+      }
+      return new Level(coarseSize, coarseRowStart, Arrays.copyOf(coarseColumns, count), Arrays.copyOf(coarseValues, count), coarseDiagonal);
+    }
+
+    /**
+     * Cholesky factorisation of this level, slightly regularised so that a singular Laplacian can still be factorised.
+     */
+    private double[][] factorise() {
+      double biggest = 0;
+      for(double value : diagonal) {
+        biggest = max(biggest, value);
+      }
+      double[][] factor = new double[size][size];
+      for(int row = 0; row < size; row++) {
+        factor[row][row] = diagonal[row] + REGULARISATION * max(biggest, 1);
+        for(int i = rowStart[row]; i < rowStart[row + 1]; i++) {
+          factor[row][columns[i]] += values[i];
+        }
+      }
+      for(int j = 0; j < size; j++) {
+        double sum = factor[j][j];
+        for(int k = 0; k < j; k++) {
+          sum -= factor[j][k] * factor[j][k];
+        }
+        factor[j][j] = sqrt(max(sum, REGULARISATION));
+        for(int i = j + 1; i < size; i++) {
+          double value = factor[i][j];
+          for(int k = 0; k < j; k++) {
+            value -= factor[i][k] * factor[j][k];
+          }
+          factor[i][j] = value / factor[j][j];
+        }
+      }
+      return factor;
+    }
+
+    private void solveDense(double[] b, double[] x) {
+      for(int i = 0; i < size; i++) {
+        double value = b[i];
+        for(int k = 0; k < i; k++) {
+          value -= cholesky[i][k] * x[k];
+        }
+        x[i] = value / cholesky[i][i];
+      }
+      for(int i = size - 1; i >= 0; i--) {
+        double value = x[i];
+        for(int k = i + 1; k < size; k++) {
+          value -= cholesky[k][i] * x[k];
+        }
+        x[i] = value / cholesky[i][i];
+      }
+    }
+
+    private void gaussSeidel(double[] b, double[] x, boolean forward) {
+      for(int n = 0; n < size; n++) {
+        int row = forward ? n : size - 1 - n;
+        if(diagonal[row] == 0) {
+          continue;
+        }
+        double total = b[row];
+        for(int i = rowStart[row]; i < rowStart[row + 1]; i++) {
+          total -= values[i] * x[columns[i]];
+        }
+        x[row] = total / diagonal[row];
+      }
+    }
+
+    /**
+     * Approximately solve this.x = b, starting from x = 0.
+     */
+    void vCycle(double[] b, double[] x) {
+      if(coarse == null) {
+        if(cholesky != null) {
+          solveDense(b, x);
+        } else {
+          for(int sweep = 0; sweep < COARSEST_SWEEPS; sweep++) {
+            gaussSeidel(b, x, true);
+            gaussSeidel(b, x, false);
+          }
+        }
+        return;
+      }
+      for(int sweep = 0; sweep < SMOOTHING_SWEEPS; sweep++) {
+        gaussSeidel(b, x, true);
+      }
+      double[] residual = new double[size];
+      multiply(x, residual);
+      double[] coarseResidual = new double[coarse.size];
+      for(int row = 0; row < size; row++) {
+        coarseResidual[aggregates[row]] += b[row] - residual[row];
+      }
+      double[] correction = new double[coarse.size];
+      coarse.vCycle(coarseResidual, correction);
+      for(int row = 0; row < size; row++) {
+        x[row] += correction[aggregates[row]];
+      }
+      for(int sweep = 0; sweep < SMOOTHING_SWEEPS; sweep++) {
+        gaussSeidel(b, x, false);
+      }
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package com.twock.ranking;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The aggregate of all matches played between the same two teams, which is all a ranker needs to know about them.
+ * It also counts how many times each result was played, so that only results actually played can be taken away; there
+ * are only as many of those as distinct scorelines, however many matches are added.
+ *
+ * @author Chris Pearson
+ */
+public class Pairing {
+  private final String team1;
+  private final String team2;
+  private int team1Total;
+  private int team2Total;
+  private int matchCount;
+  private Map<Integer, Integer> resultCounts;
+
+  /**
+   * @param team1 the team that sorts first, as in Match
+   * @param team2 the team that sorts second
+   */
+  public Pairing(String team1, String team2) {
+    this.team1 = team1;
+    this.team2 = team2;
+  }
+
+  public void add(Match match) {
+    add(match.getTeam1Score(), match.getTeam2Score());
+  }
+
+  public void add(int team1Score, int team2Score) {
+    team1Total += team1Score;
+    team2Total += team2Score;
+    matchCount++;
+    if(resultCounts == null) {
+      resultCounts = new HashMap<>();
+    }
+    Integer key = getResultKey(team1Score, team2Score);
+    Integer count = resultCounts.get(key);
+    resultCounts.put(key, count == null ? 1 : count + 1);
+  }
+
+  /**
+   * Take away a match previously added with this result.
+   *
+   * @return false if no match with this result has been added, leaving the pairing unchanged
+   */
+  public boolean remove(int team1Score, int team2Score) {
+    Integer key = getResultKey(team1Score, team2Score);
+    Integer count = resultCounts == null ? null : resultCounts.get(key);
+    if(count == null) {
+      return false;
+    }
+    if(count == 1) {
+      resultCounts.remove(key);
+    } else {
+      resultCounts.put(key, count - 1);
+    }
+    team1Total -= team1Score;
+    team2Total -= team2Score;
+    matchCount--;
+    return true;
+  }
+
+  private static Integer getResultKey(int team1Score, int team2Score) {
+    return team1Score * 65536 + team2Score;
+  }
+
+  public String getTeam1() {
+    return team1;
+  }
+
+  public String getTeam2() {
+    return team2;
+  }
+
+  public int getTeam1Total() {
+    return team1Total;
+  }
+
+  public int getTeam2Total() {
+    return team2Total;
+  }
+
+  public int getMatchCount() {
+    return matchCount;
+  }
+
+  @Override
+  public String toString() {
+    return "Pairing{" +
+      "team1='" + team1 + '\'' +
+      ", team2='" + team2 + '\'' +
+      ", team1Total=" + team1Total +
+      ", team2Total=" + team2Total +
+      ", matchCount=" + matchCount +
+      '}';
+  }
+}
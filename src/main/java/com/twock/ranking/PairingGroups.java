@@ -0,0 +1,220 @@
+package com.twock.ranking;
+
+import java.util.*;
+
+/**
+ * The teams and match groups of a set of pairings, built once so that the pairings can be solved under several ranking
+ * models.  Only read once built, so can be shared between threads.
+ *
+ * @author Chris Pearson
+ */
+class PairingGroups {
+  private final List<Pairing> pairings;
+  private final int[] pairingTeam1;
+  private final int[] pairingTeam2;
+  private final Map<String, Integer> teamIndexes = new HashMap<>();
+  private final List<String> teams = new ArrayList<>();
+  // for each group, the indexes of its teams and pairings, and its pairings' teams as indexes within the group
+  private final List<int[]> groupTeams = new ArrayList<>();
+  private final List<int[]> groupPairings = new ArrayList<>();
+  private final List<int[][]> groupPairingTeams = new ArrayList<>();
+  private final int[] teamGroups;
+
+  PairingGroups(List<Pairing> pairings) {
+    this.pairings = pairings;
+    pairingTeam1 = new int[pairings.size()];
+    pairingTeam2 = new int[pairings.size()];
+    for(int p = 0; p < pairings.size(); p++) {
+      pairingTeam1[p] = addTeam(pairings.get(p).getTeam1());
+      pairingTeam2[p] = addTeam(pairings.get(p).getTeam2());
+    }
+    teamGroups = group();
+  }
+
+  /**
+   * Build the groups of pairings given as team ids, without needing Pairing objects.  Only the teams in a pairing are
+   * included.
+   *
+   * @param teamNames name of each team id
+   * @param team1Ids team id of each pairing's first team
+   * @param team2Ids team id of each pairing's second team
+   */
+  PairingGroups(List<String> teamNames, int[] team1Ids, int[] team2Ids) {
+    this.pairings = null;
+    pairingTeam1 = new int[team1Ids.length];
+    pairingTeam2 = new int[team2Ids.length];
+    for(int p = 0; p < team1Ids.length; p++) {
+      pairingTeam1[p] = addTeam(teamNames.get(team1Ids[p]));
+      pairingTeam2[p] = addTeam(teamNames.get(team2Ids[p]));
+    }
+    teamGroups = group();
+  }
+
+  private int[] group() {
+    int teamCount = teams.size();
+    int[] parents = new int[teamCount];
+    for(int i = 0; i < teamCount; i++) {
+      parents[i] = i;
+    }
+    for(int p = 0; p < pairingTeam1.length; p++) {
+      parents[find(parents, pairingTeam1[p])] = find(parents, pairingTeam2[p]);
+    }
+    int[] teamGroups = new int[teamCount];
+    int[] localIndexes = new int[teamCount];
+    Map<Integer, Integer> rootGroups = new HashMap<>();
+    List<List<Integer>> teamLists = new ArrayList<>();
+    for(int team = 0; team < teamCount; team++) {
+      Integer group = rootGroups.get(find(parents, team));
+      if(group == null) {
+        group = teamLists.size();
+        rootGroups.put(find(parents, team), group);
+        teamLists.add(new ArrayList<Integer>());
+      }
+      teamGroups[team] = group;
+      localIndexes[team] = teamLists.get(group).size();
+      teamLists.get(group).add(team);
+    }
+    List<List<Integer>> pairingLists = new ArrayList<>();
+    for(List<Integer> teamList : teamLists) {
+      groupTeams.add(toArray(teamList));
+      pairingLists.add(new ArrayList<Integer>());
+    }
+    for(int p = 0; p < pairingTeam1.length; p++) {
+      pairingLists.get(teamGroups[pairingTeam1[p]]).add(p);
+    }
+    for(List<Integer> pairingList : pairingLists) {
+      int[] indexes = toArray(pairingList);
+      int[][] pairingTeams = new int[2][indexes.length];
+      for(int i = 0; i < indexes.length; i++) {
+        pairingTeams[0][i] = localIndexes[pairingTeam1[indexes[i]]];
+        pairingTeams[1][i] = localIndexes[pairingTeam2[indexes[i]]];
+      }
+      groupPairings.add(indexes);
+      groupPairingTeams.add(pairingTeams);
+    }
+    return teamGroups;
+  }
+
+  private int addTeam(String team) {
+    Integer index = teamIndexes.get(team);
+    if(index == null) {
+      index = teams.size();
+      teamIndexes.put(team, index);
+      teams.add(team);
+    }
+    return index;
+  }
+
+  /**
+   * @return teams in the order they first appear in the pairings
+   */
+  List<String> getTeams() {
+    return teams;
+  }
+
+  /**
+   * @return the team's index, or -1 if it is not in any pairing
+   */
+  int getTeamIndex(String team) {
+    Integer index = teamIndexes.get(team);
+    return index == null ? -1 : index;
+  }
+
+  int getGroup(int teamIndex) {
+    return teamGroups[teamIndex];
+  }
+
+  int getGroupCount() {
+    return groupTeams.size();
+  }
+
+  /**
+   * @return the indexes of the group's teams
+   */
+  int[] getGroupTeams(int group) {
+    return groupTeams.get(group);
+  }
+
+  /**
+   * @return the indexes of the group's pairings
+   */
+  int[] getGroupPairings(int group) {
+    return groupPairings.get(group);
+  }
+
+  /**
+   * @return the first and second team of each of the group's pairings, as indexes into getGroupTeams
+   */
+  int[][] getGroupPairingTeams(int group) {
+    return groupPairingTeams.get(group);
+  }
+
+  /**
+   * Solve each group with the model's relative skills, each group averaging 50.
+   *
+   * @return ratings by team index
+   */
+  double[] solve(PlainRanker model, RatingSolver solver) {
+    double[] skill = new double[pairings.size()];
+    for(int p = 0; p < skill.length; p++) {
+      skill[p] = model.calculateRelativeSkill(pairings.get(p));
+    }
+    return solve(skill, solver);
+  }
+
+  /**
+   * Solve each group with the given relative skills, each group averaging 50.
+   *
+   * @param skill relative skill of each pairing, in the order the pairings were given
+   * @return ratings by team index
+   */
+  double[] solve(double[] skill, RatingSolver solver) {
+    return solve(skill, null, solver);
+  }
+
+  /**
+   * Solve each group with the given relative skills, starting from the given ratings, each group averaging 50.
+   *
+   * @param skill relative skill of each pairing, in the order the pairings were given
+   * @param initialRatings rating to start each team from by team index, NaN to start from 50, or null to start
+   * everyone from 50
+   * @return ratings by team index
+   */
+  double[] solve(double[] skill, double[] initialRatings, RatingSolver solver) {
+    double[] ratings = new double[teams.size()];
+    for(int group = 0; group < groupTeams.size(); group++) {
+      int[] indexes = groupPairings.get(group);
+      double[] groupSkill = new double[indexes.length];
+      for(int i = 0; i < indexes.length; i++) {
+        groupSkill[i] = skill[indexes[i]];
+      }
+      int[] groupTeamIndexes = groupTeams.get(group);
+      double[] groupRatings = new double[groupTeamIndexes.length];
+      for(int i = 0; i < groupTeamIndexes.length; i++) {
+        double initial = initialRatings == null ? Double.NaN : initialRatings[groupTeamIndexes[i]];
+        groupRatings[i] = Double.isNaN(initial) ? Ranker.INITIAL_RANKING : initial;
+      }
+      solver.solve(groupPairingTeams.get(group)[0], groupPairingTeams.get(group)[1], groupSkill, groupRatings, 0, Long.MAX_VALUE);
+      for(int i = 0; i < groupTeamIndexes.length; i++) {
+        ratings[groupTeamIndexes[i]] = groupRatings[i];
+      }
+    }
+    return ratings;
+  }
+
+  private static int find(int[] parents, int team) {
+    while(parents[team] != team) {
+      parents[team] = parents[parents[team]];
+      team = parents[team];
+    }
+    return team;
+  }
+
+  private static int[] toArray(List<Integer> values) {
+    int[] result = new int[values.size()];
+    for(int i = 0; i < result.length; i++) {
+      result[i] = values.get(i);
+    }
+    return result;
+  }
+}
@@ -13,67 +13,458 @@ import static java.lang.Math.abs;
 /**
  * @author Chris Pearson
  */
-public class PlainRanker implements Ranker {
+public class PlainRanker implements Ranker, Cloneable {
   private static final String LF = System.getProperty("line.separator");
   private static final Logger log = LoggerFactory.getLogger(PlainRanker.class);
   private static final int CENTRAL_RANK = 50;
-  private List<Match> matches = new ArrayList<>();
-  private List<Matrix> factors;
+  private Map<String, List<Match>> matchGroups = new HashMap<>();
+  private Set<List<Match>> changedGroups = Collections.newSetFromMap(new IdentityHashMap<List<Match>, Boolean>());
+  private Map<String, Double> ratings = new HashMap<>();
+  private Map<String, Integer> gamesPlayed = new HashMap<>();
+  private Map<String, Double> stepSizes = new HashMap<>();
+  private Map<String, Double> errorBounds = new HashMap<>();
+  private Set<List<Match>> approximateGroups = Collections.newSetFromMap(new IdentityHashMap<List<Match>, Boolean>());
+  private double tolerance = 0;
+  private long timeBudgetNanos = Long.MAX_VALUE;
+  private boolean refine;
+  private RatingSolver solver;
+  private ResultCache resultCache;
+  private List<SolveListener> solveListeners = new ArrayList<>();
 
   @Override
   public void addMatch(LocalDate date, String team1, String team2, int score1, int score2) {
-    factors = null;
     Match match = new Match(date, team1, team2, score1, score2);
-    matches.add(match);
+    List<Match> group1 = matchGroups.get(match.getTeam1());
+    List<Match> group2 = matchGroups.get(match.getTeam2());
+    List<Match> group = MatchUtils.addToMatchGroups(matchGroups, match);
+    // a group merged into the other is no longer current, and its teams may later lose their step sizes
+    for(List<Match> merged : Arrays.asList(group1, group2)) {
+      if(merged != null && merged != group) {
+        changedGroups.remove(merged);
+        approximateGroups.remove(merged);
+      }
+    }
+    changedGroups.add(group);
+    incrementGamesPlayed(match.getTeam1(), 1);
+    incrementGamesPlayed(match.getTeam2(), 1);
     log.debug("Added new match: {}", match);
   }
 
+  /**
+   * Remove the match from its group, splitting the group if the match was its only link between two sets of teams, and
+   * forget the ratings of teams left without matches, telling the solve listeners they have gone.  Only the remaining
+   * parts of the group are re-solved.  The match is only looked for within its own group, so a removal costs time in
+   * proportion to the group, as re-solving it does, rather than to every match.
+   */
   @Override
-  public int getGamesPlayed(String team) {
-    int result = 0;
-    for(Match match : matches) {
-      if(match.getTeam1().equals(team) || match.getTeam2().equals(team)) {
-        result++;
+  public boolean removeMatch(LocalDate date, String team1, String team2, int score1, int score2) {
+    Match match = new Match(date, team1, team2, score1, score2);
+    List<Match> group = matchGroups.get(match.getTeam1());
+    List<List<Match>> parts = MatchUtils.removeFromMatchGroups(matchGroups, match);
+    if(parts == null) {
+      return false;
+    }
+    if(parts.isEmpty()) {
+      changedGroups.remove(group);
+      approximateGroups.remove(group);
+    }
+    changedGroups.addAll(parts);
+    Map<String, Double> removedRatings = new HashMap<>();
+    for(String team : Arrays.asList(match.getTeam1(), match.getTeam2())) {
+      incrementGamesPlayed(team, -1);
+      if(getGamesPlayed(team) == 0) {
+        Double rating = ratings.remove(team);
+        stepSizes.remove(team);
+        errorBounds.remove(team);
+        if(rating != null) {
+          removedRatings.put(team, rating);
+        }
       }
     }
-    return result;
+    log.debug("Removed match: {}, leaving {} group(s)", match, parts.size());
+    if(!removedRatings.isEmpty()) {
+      for(SolveListener listener : solveListeners) {
+        listener.removed(removedRatings);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Correct the scores in place, so that only the match's group is re-solved.
+   */
+  @Override
+  public boolean updateMatch(LocalDate date, String team1, String team2, int score1, int score2, int correctedScore1, int correctedScore2) {
+    Match match = new Match(date, team1, team2, score1, score2);
+    List<Match> group = matchGroups.get(match.getTeam1());
+    int index = group == null ? -1 : MatchUtils.indexOf(group, match.getKey());
+    if(index == -1) {
+      return false;
+    }
+    Match corrected = new Match(date, team1, team2, correctedScore1, correctedScore2);
+    group.set(index, corrected);
+    changedGroups.add(group);
+    log.debug("Corrected match: {} to {}", match, corrected);
+    return true;
+  }
+
+  private void incrementGamesPlayed(String team, int increment) {
+    Integer played = gamesPlayed.get(team);
+    int result = (played == null ? 0 : played) + increment;
+    if(result == 0) {
+      gamesPlayed.remove(team);
+    } else {
+      gamesPlayed.put(team, result);
+    }
+  }
+
+  @Override
+  public int getGamesPlayed(String team) {
+    Integer played = gamesPlayed.get(team);
+    return played == null ? 0 : played;
   }
 
   @Override
   public double getRanking(String team) {
-    if(factors == null) {
-      Map<String, List<Match>> teamMatches = MatchUtils.getMatchGroups(matches);
-      Set<List<Match>> matchGroups = new HashSet<>(teamMatches.values());
-      if(matchGroups.size() > 1) {
-        List<List<Match>> matchGroupList = new ArrayList<>(matchGroups);
-        log.warn("There are {} distinct groups of matches:", matchGroupList.size());
-        for(int i = 0; i < matchGroupList.size(); i++) {
-          List<Match> matchList = matchGroupList.get(i);
-          log.warn("Group {} ({} teams): {}", i + 1, matchList.size(), getSortedTeamList(matchList));
+    solveChangedGroups();
+    Double rating = ratings.get(team);
+    if(rating == null) {
+      throw new RuntimeException("Unable to find team " + team + " in any of the " + ratings.size() + " ranked teams");
+    }
+    return rating;
+  }
+
+  /**
+   * The final step size of the solve that produced a team's rating.  It is 0 when the solution is exact, and only above
+   * the full precision threshold when the solve was stopped early by the tolerance or time budget.  It shows how far
+   * the solve was from converging, but is not a bound on the rating's error; see getErrorBound for that.
+   */
+  public double getStepSize(String team) {
+    getRanking(team);
+    return stepSizes.get(team);
+  }
+
+  /**
+   * A bound on how far a team's rating can be from the exact least squares rating, calculated from the remaining
+   * gradient of the cost after each group solve.
+   */
+  public double getErrorBound(String team) {
+    getRanking(team);
+    return errorBounds.get(team);
+  }
+
+  /**
+   * Stop solving once the step size falls below this tolerance, rather than continuing to full precision.  Lowering the
+   * tolerance refines groups solved at a coarser tolerance on the next solve.
+   *
+   * @param tolerance largest acceptable step size, or 0 for full precision
+   */
+  public void setTolerance(double tolerance) {
+    this.tolerance = tolerance;
+    refine = true;
+  }
+
+  /**
+   * Stop solving once this much time has elapsed, leaving each group at whatever precision it has reached.  The budget
+   * is shared by every group re-solved in one call, so groups reached after it has run out get a single solver pass.
+   * Groups that have not reached the tolerance are refined on the next solve after the budget or tolerance is set again.
+   *
+   * @param timeBudgetNanos maximum time per call to solveChangedGroups, or Long.MAX_VALUE for no limit
+   */
+  public void setTimeBudgetNanos(long timeBudgetNanos) {
+    this.timeBudgetNanos = timeBudgetNanos;
+    refine = true;
+  }
+
+  /**
+   * Re-solve only the match groups that have had matches added since they were last solved, or that are being refined
+   * to a new tolerance, starting each solve from the previous ratings of its teams.
+   *
+   * @return the newly calculated ratings of every team in a re-solved group, keyed by team
+   */
+  public Map<String, Double> solveChangedGroups() {
+    Map<String, Double> result = new HashMap<>();
+    if(refine) {
+      for(List<Match> matchGroup : approximateGroups) {
+        double stepSize = stepSizes.get(matchGroup.get(0).getTeam1());
+        if(stepSize >= tolerance) {
+          changedGroups.add(matchGroup);
         }
       }
-      factors = new ArrayList<>();
-      for(List<Match> matchGroup : matchGroups) {
-        List<String> teams = getSortedTeamList(matchGroup);
-        Matrix matrix = calculateFactors(matchGroup, teams);
-        log.debug("Initial factors:{}{}", LF, matrix);
-        solve(teams, matrix);
-        log.debug("Calculated factors:{}{}", LF, matrix);
-        this.factors.add(matrix);
+      refine = false;
+    }
+    if(changedGroups.isEmpty()) {
+      return result;
+    }
+    Set<List<Match>> allGroups = Collections.newSetFromMap(new IdentityHashMap<List<Match>, Boolean>());
+    allGroups.addAll(matchGroups.values());
+    if(allGroups.size() > 1) {
+      log.debug("There are {} distinct groups of matches, re-solving {}", allGroups.size(), changedGroups.size());
+    }
+    long start = System.nanoTime();
+    for(List<Match> matchGroup : changedGroups) {
+      approximateGroups.remove(matchGroup);
+      // groups merged into another since they changed are no longer current
+      if(allGroups.contains(matchGroup)) {
+        long remainingNanos = timeBudgetNanos == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(0, timeBudgetNanos - (System.nanoTime() - start));
+        result.putAll(solveGroup(matchGroup, remainingNanos));
+      }
+    }
+    changedGroups.clear();
+    Map<String, Double> previous = new HashMap<>();
+    if(!solveListeners.isEmpty()) {
+      for(String team : result.keySet()) {
+        Double previousRating = ratings.get(team);
+        if(previousRating != null) {
+          previous.put(team, previousRating);
+        }
       }
     }
-    for(Matrix factor : factors) {
-      int teamIndex = factor.getHeadings().indexOf(team);
-      if(teamIndex != -1) {
-        double[] targetRow = factor.getMatrix()[teamIndex];
-        return -targetRow[targetRow.length - 1];
+    ratings.putAll(result);
+    if(!result.isEmpty()) {
+      for(SolveListener listener : solveListeners) {
+        listener.solved(previous, result);
       }
     }
-    throw new RuntimeException("Unable to find team " + team + " in any matrices " + factors);
+    return result;
+  }
+
+  /**
+   * Copy the matches, ratings and solve settings, so that the copy can be solved without holding up this ranker.  The
+   * copy shares the solver and result cache but not the solve listeners.
+   *
+   * @return an independent ranker of the same model
+   */
+  public PlainRanker copy() {
+    PlainRanker result;
+    try {
+      result = (PlainRanker)clone();
+    } catch(CloneNotSupportedException e) {
+      throw new RuntimeException("Unable to copy " + getClass().getName(), e);
+    }
+    Map<List<Match>, List<Match>> groupCopies = new IdentityHashMap<>();
+    result.matchGroups = new HashMap<>();
+    for(Map.Entry<String, List<Match>> entry : matchGroups.entrySet()) {
+      List<Match> groupCopy = groupCopies.get(entry.getValue());
+      if(groupCopy == null) {
+        groupCopy = new ArrayList<>(entry.getValue());
+        groupCopies.put(entry.getValue(), groupCopy);
+      }
+      result.matchGroups.put(entry.getKey(), groupCopy);
+    }
+    // groups merged away since they changed are dropped, as they would be skipped by the next solve
+    result.changedGroups = copyGroupSet(changedGroups, groupCopies);
+    result.approximateGroups = copyGroupSet(approximateGroups, groupCopies);
+    result.ratings = new HashMap<>(ratings);
+    result.gamesPlayed = new HashMap<>(gamesPlayed);
+    result.stepSizes = new HashMap<>(stepSizes);
+    result.errorBounds = new HashMap<>(errorBounds);
+    result.solveListeners = new ArrayList<>();
+    return result;
+  }
+
+  private static Set<List<Match>> copyGroupSet(Set<List<Match>> groups, Map<List<Match>, List<Match>> groupCopies) {
+    Set<List<Match>> result = Collections.newSetFromMap(new IdentityHashMap<List<Match>, Boolean>());
+    for(List<Match> group : groups) {
+      List<Match> groupCopy = groupCopies.get(group);
+      if(groupCopy != null) {
+        result.add(groupCopy);
+      }
+    }
+    return result;
+  }
+
+  public void addSolveListener(SolveListener listener) {
+    solveListeners.add(listener);
+  }
+
+  /**
+   * Use a different solver for each match group, rather than the dense matrix search.
+   *
+   * @param solver solver to use, or null to use the built-in search
+   */
+  public void setSolver(RatingSolver solver) {
+    this.solver = solver;
+  }
+
+  /**
+   * Load the ratings of match groups solved before from the cache rather than solving them, and store the ratings of
+   * groups solved to full precision in it.
+   *
+   * @param resultCache cache to use, or null to always solve
+   */
+  public void setResultCache(ResultCache resultCache) {
+    this.resultCache = resultCache;
+  }
+
+  private Map<String, Double> solveGroup(List<Match> matchGroup, long budgetNanos) {
+    List<Pairing> pairings = MatchUtils.getPairings(matchGroup);
+    String cacheKey = null;
+    if(resultCache != null) {
+      cacheKey = ResultCache.getKey(getModelName(), pairings);
+      Map<String, Double> cached = resultCache.get(cacheKey);
+      if(cached != null) {
+        log.debug("Loaded {} ratings from cached result {}", cached.size(), cacheKey);
+        double errorBound = calculateErrorBound(pairings, cached);
+        for(String team : cached.keySet()) {
+          stepSizes.put(team, 0d);
+          errorBounds.put(team, errorBound);
+        }
+        return cached;
+      }
+    }
+    List<String> teams = getSortedTeamList(matchGroup);
+    double[] solution = new double[teams.size()];
+    double stepSize;
+    if(solver == null) {
+      Matrix matrix = calculateFactors(matchGroup, teams);
+      log.debug("Initial factors:{}{}", LF, matrix);
+      stepSize = solve(teams, matrix, ratings, tolerance, budgetNanos);
+      log.debug("Calculated factors:{}{}", LF, matrix);
+      for(int teamIndex = 0; teamIndex < teams.size(); teamIndex++) {
+        double[] targetRow = matrix.getMatrix()[teamIndex];
+        solution[teamIndex] = -targetRow[targetRow.length - 1];
+      }
+    } else {
+      stepSize = solveSparse(pairings, teams, solution, budgetNanos);
+    }
+    if(!isZero(stepSize)) {
+      approximateGroups.add(matchGroup);
+    }
+    Map<String, Double> result = new HashMap<>();
+    for(int teamIndex = 0; teamIndex < teams.size(); teamIndex++) {
+      result.put(teams.get(teamIndex), solution[teamIndex]);
+      stepSizes.put(teams.get(teamIndex), stepSize);
+    }
+    double errorBound = calculateErrorBound(pairings, result);
+    for(String team : teams) {
+      errorBounds.put(team, errorBound);
+    }
+    if(cacheKey != null && isZero(stepSize)) {
+      resultCache.put(cacheKey, result);
+    }
+    return result;
+  }
+
+  /**
+   * @return identifies how ratings are calculated from pairings, for keying cached results
+   */
+  private String getModelName() {
+    return solver == null ? getClass().getName() : getClass().getName() + '/' + solver.getClass().getName();
+  }
+
+  private double solveSparse(List<Pairing> pairings, List<String> teams, double[] solution, long budgetNanos) {
+    Map<String, Integer> teamIndexes = getTeamIndexes(teams);
+    int[] team1 = new int[pairings.size()];
+    int[] team2 = new int[pairings.size()];
+    double[] skill = new double[pairings.size()];
+    for(int i = 0; i < pairings.size(); i++) {
+      Pairing pairing = pairings.get(i);
+      team1[i] = teamIndexes.get(pairing.getTeam1());
+      team2[i] = teamIndexes.get(pairing.getTeam2());
+      skill[i] = calculateRelativeSkill(pairing);
+    }
+    for(int teamIndex = 0; teamIndex < teams.size(); teamIndex++) {
+      Double initial = ratings.get(teams.get(teamIndex));
+      solution[teamIndex] = initial == null ? INITIAL_RANKING : initial;
+    }
+    return solver.solve(team1, team2, skill, solution, tolerance, budgetNanos);
+  }
+
+  /**
+   * Bound the error of every rating in a group against the exact least squares ratings.  The error e averages zero, as
+   * both sets of ratings average 50, and solves L.e = g, where L is the Laplacian of the pairings and g the gradient of
+   * the cost, so |e| is at most |g| / lambda2.  Mohar's bound lambda2 >= 4 / (n.D) on a graph of n teams and diameter
+   * D, with D at most twice the distance from any one team to the furthest, then bounds the largest error.
+   *
+   * @param pairings every pairing in the group
+   * @param groupRatings rating of every team in the group
+   * @return a bound on the largest difference of any rating from its exact value
+   */
+  private double calculateErrorBound(List<Pairing> pairings, Map<String, Double> groupRatings) {
+    Map<String, Double> gradient = new HashMap<>();
+    Map<String, List<String>> opponents = new HashMap<>();
+    for(Pairing pairing : pairings) {
+      double residual = groupRatings.get(pairing.getTeam1()) - groupRatings.get(pairing.getTeam2()) - calculateRelativeSkill(pairing);
+      addGradient(gradient, pairing.getTeam1(), residual);
+      addGradient(gradient, pairing.getTeam2(), -residual);
+      addOpponent(opponents, pairing.getTeam1(), pairing.getTeam2());
+      addOpponent(opponents, pairing.getTeam2(), pairing.getTeam1());
+    }
+    double norm = 0;
+    for(double value : gradient.values()) {
+      norm += value * value;
+    }
+    if(norm == 0) {
+      return 0;
+    }
+    // distance from the first team to the furthest, found breadth first
+    Map<String, Integer> distances = new HashMap<>();
+    Deque<String> queue = new ArrayDeque<>();
+    String first = pairings.get(0).getTeam1();
+    distances.put(first, 0);
+    queue.add(first);
+    int eccentricity = 0;
+    while(!queue.isEmpty()) {
+      String team = queue.remove();
+      int distance = distances.get(team);
+      eccentricity = Math.max(eccentricity, distance);
+      for(String opponent : opponents.get(team)) {
+        if(!distances.containsKey(opponent)) {
+          distances.put(opponent, distance + 1);
+          queue.add(opponent);
+        }
+      }
+    }
+    int teamCount = groupRatings.size();
+    int diameter = Math.min(2 * eccentricity, teamCount - 1);
+    return Math.sqrt(norm) * teamCount * diameter / 4;
+  }
+
+  private static void addGradient(Map<String, Double> gradient, String team, double value) {
+    Double total = gradient.get(team);
+    gradient.put(team, total == null ? value : total + value);
+  }
+
+  private static void addOpponent(Map<String, List<String>> opponents, String team, String opponent) {
+    List<String> teamOpponents = opponents.get(team);
+    if(teamOpponents == null) {
+      teamOpponents = new ArrayList<>();
+      opponents.put(team, teamOpponents);
+    }
+    teamOpponents.add(opponent);
   }
 
   public void solve(List<String> teams, Matrix matrix) {
-    // Step 1: initialise the matrix with a solution (everyone at 50, constants take the slack)
+    solve(teams, matrix, Collections.<String, Double>emptyMap());
+  }
+
+  /**
+   * Solve the matrix, starting the search from the given ratings rather than from everyone at 50.  Teams without an
+   * initial rating start at 50.
+   *
+   * @param teams sorted teams in the matrix
+   * @param matrix factors as returned by calculateFactors, reduced to the solution in place
+   * @param initialRatings ratings to start from, keyed by team
+   */
+  public void solve(List<String> teams, Matrix matrix, Map<String, Double> initialRatings) {
+    solve(teams, matrix, initialRatings, 0, Long.MAX_VALUE);
+  }
+
+  /**
+   * Solve the matrix starting from the given ratings, stopping early once the step size falls below the tolerance or
+   * the time budget runs out.
+   *
+   * @param teams sorted teams in the matrix
+   * @param matrix factors as returned by calculateFactors, reduced to the solution in place
+   * @param initialRatings ratings to start from, keyed by team
+   * @param tolerance largest acceptable step size, or 0 for full precision
+   * @param timeBudgetNanos maximum time to search for, or Long.MAX_VALUE for no limit
+   * @return the final step size, 0 if the solution is exact
+   */
+  public double solve(List<String> teams, Matrix matrix, Map<String, Double> initialRatings, double tolerance, long timeBudgetNanos) {
+    long start = System.nanoTime();
+    // Step 1: initialise the matrix with a solution (everyone at their initial rating or 50, constants take the slack)
     int lastIndex = matrix.getHeadings().size() - 1;
     double[] solution = new double[lastIndex];
     // matrix has a row count of number of matches, column count of number of teams + matches + 1
@@ -81,6 +472,20 @@ public class PlainRanker implements Ranker {
     int matchCount = factors.length - 1;
     int teamCount = lastIndex - matchCount;
     Arrays.fill(solution, 0, teamCount, 50);
+    for(int team = 0; team < teamCount; team++) {
+      Double initial = initialRatings.get(teams.get(team));
+      if(initial != null) {
+        solution[team] = initial;
+      }
+    }
+    // initial ratings from a group since split need not average 50, but only their differences matter to the cost
+    double initialTotal = 0;
+    for(int team = 0; team < teamCount; team++) {
+      initialTotal += solution[team];
+    }
+    for(int team = 0; team < teamCount; team++) {
+      solution[team] += CENTRAL_RANK - initialTotal / teamCount;
+    }
     // a = b + 3 + k1 >> a - b - k1 - 3; hence if a=b=50, k1=-3
     recalculateConstants(matrix, solution);
     matrix.checkSolution(solution);
@@ -118,6 +523,9 @@ public class PlainRanker implements Ranker {
      */
     double magnitude = 1;
     while(cost > 0) {
+      if(magnitude < tolerance || System.nanoTime() - start > timeBudgetNanos) {
+        break;
+      }
       double lastCost = cost;
       double[] oldSolution = Arrays.copyOf(solution, solution.length);
       log.trace("Potential solution (cost {}, increment={})={}", cost, magnitude, solution);
@@ -130,6 +538,7 @@ public class PlainRanker implements Ranker {
       log.trace("Gradient={}", gradient);
       int teamToChange = findBiggestAbsIndex(gradient);
       if(teamToChange == -1) {
+        magnitude = 0;
         break;
       }
       solution[teamToChange] += gradient[teamToChange] > 0 ? -magnitude : magnitude;
@@ -166,6 +575,7 @@ public class PlainRanker implements Ranker {
       }
     }
     matrix.convertToReducedRowEchelonForm();
+    return cost > 0 ? magnitude : 0;
   }
 
   private static void recalculateConstants(Matrix matrix, double[] solution) {
@@ -215,8 +625,9 @@ public class PlainRanker implements Ranker {
 
   private Matrix calculateFactors(List<Match> allMatches, List<String> groupTeams) {
     int teamCount = groupTeams.size();
-    List<List<Match>> matchesWithMatchingTeams = extractMatchesWithSameTeams(allMatches);
-    int matchCount = matchesWithMatchingTeams.size();
+    List<Pairing> pairings = MatchUtils.getPairings(allMatches);
+    int matchCount = pairings.size();
+    Map<String, Integer> teamIndexes = getTeamIndexes(groupTeams);
     // one linear equation per match, team1 = team2 + goalDiff[positive when team1 wins] + constant1
     // each linear equation = 0 because we have the result as the last value
     int variableCount = teamCount + matchCount + 1; // one variable per team + one constant per match + one numeric total
@@ -224,11 +635,11 @@ public class PlainRanker implements Ranker {
     for(int matchIndex = 0; matchIndex < matchCount; matchIndex++) {
       double[] thisFactor = factors[matchIndex] = new double[variableCount];
       // from above, team2 - team1 + goalDiff[positive when team1 wins] + constant = 0
-      List<Match> matches = matchesWithMatchingTeams.get(matchIndex);
-      thisFactor[groupTeams.indexOf(matches.get(0).getTeam1())] = -1;
-      thisFactor[groupTeams.indexOf(matches.get(0).getTeam2())] = 1;
+      Pairing pairing = pairings.get(matchIndex);
+      thisFactor[teamIndexes.get(pairing.getTeam1())] = -1;
+      thisFactor[teamIndexes.get(pairing.getTeam2())] = 1;
       // todo: take into account the date the game was played and weight accordingly
-      thisFactor[variableCount - 1] = calculateRelativeSkill(matches);
+      thisFactor[variableCount - 1] = calculateRelativeSkill(pairing);
       thisFactor[teamCount + matchIndex] = 1;
     }
     // team1 + team2 + ... + teamn = 50 * n
@@ -250,15 +661,46 @@ public class PlainRanker implements Ranker {
     return result;
   }
 
+  private static Map<String, Integer> getTeamIndexes(List<String> teams) {
+    Map<String, Integer> result = new HashMap<>();
+    for(int i = 0; i < teams.size(); i++) {
+      result.put(teams.get(i), i);
+    }
+    return result;
+  }
+
   /**
    * Calculate the relative skill.  In the PlainRanker this is simply goal difference but it doesn't handle cases where
    * people are beaten 10-0 very well.
+   * <p/>
+   * Final since the solvers only work from pairing aggregates, so would ignore an override; ranking models override
+   * calculateRelativeSkill(int, int, int) instead.
    *
    * @param matches matches to assess, all between the same two people
    * @return a figure to measure relative skill, positive when team1 has won
    */
-  public double calculateRelativeSkill(List<Match> matches) {
-    return (double)(getTotalScore(matches, 1) - getTotalScore(matches, 2)) / matches.size();
+  public final double calculateRelativeSkill(List<Match> matches) {
+    return calculateRelativeSkill(getTotalScore(matches, 1), getTotalScore(matches, 2), matches.size());
+  }
+
+  /**
+   * Final for the same reason as calculateRelativeSkill(List), as some solvers read the aggregates without a Pairing.
+   */
+  public final double calculateRelativeSkill(Pairing pairing) {
+    return calculateRelativeSkill(pairing.getTeam1Total(), pairing.getTeam2Total(), pairing.getMatchCount());
+  }
+
+  /**
+   * Calculate the relative skill from the total scores of all matches between two people.  Ranking models override this
+   * rather than the per-match variants, so that it can be calculated from pairing aggregates alone.
+   *
+   * @param team1Total total of team1's scores
+   * @param team2Total total of team2's scores
+   * @param matchCount number of matches played
+   * @return a figure to measure relative skill, positive when team1 has won
+   */
+  public double calculateRelativeSkill(int team1Total, int team2Total, int matchCount) {
+    return (double)(team1Total - team2Total) / matchCount;
   }
 
   private int getTotalScore(List<Match> matches, int teamNumber) {
@@ -269,27 +711,27 @@ public class PlainRanker implements Ranker {
     return result;
   }
 
-  private List<List<Match>> extractMatchesWithSameTeams(List<Match> allMatches) {
-    List<List<Match>> result = new ArrayList<>();
-    List<Match> remaining = new ArrayList<>(allMatches);
-    while(!remaining.isEmpty()) {
-      Match todo = remaining.remove(0);
-      List<Match> thisPairing = new ArrayList<>();
-      thisPairing.add(todo);
-      for(Iterator<Match> i = remaining.iterator(); i.hasNext(); ) {
-        Match check = i.next();
-        if(check.getTeam1().equals(todo.getTeam1()) && check.getTeam2().equals(todo.getTeam2())) {
-          i.remove();
-          thisPairing.add(check);
-        }
-      }
-      result.add(thisPairing);
-    }
-    return result;
-  }
-
   @Override
   public List<String> getTeams() {
-    return getSortedTeamList(matches);
+    List<String> teams = new ArrayList<>(gamesPlayed.keySet());
+    Collections.sort(teams);
+    return teams;
+  }
+
+  public interface SolveListener {
+    /**
+     * Called after each solve that re-solved at least one group.
+     *
+     * @param previous ratings of the re-solved teams before this solve, excluding teams that had no rating yet
+     * @param updated new ratings of the re-solved teams
+     */
+    void solved(Map<String, Double> previous, Map<String, Double> updated);
+
+    /**
+     * Called when removing a match leaves teams without any matches, so that they no longer have ratings.
+     *
+     * @param previous last ratings of the removed teams, excluding teams that had no rating yet
+     */
+    void removed(Map<String, Double> previous);
   }
 }
\ No newline at end of file
@@ -0,0 +1,290 @@
+package com.twock.ranking;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.twock.ranking.Matrix.isZero;
+
+/**
+ * Answers ranking queries as soon as the ratings reach a tolerance or time budget, then keeps refining them in the
+ * background, publishing a more precise snapshot after each refinement step until full precision is reached.  The
+ * refinement solves a copy of the ranker, so that matches can be added and rankings read while it runs, and the fully
+ * refined copy replaces the ranker only if no match has changed since it was taken.
+ *
+ * @author Chris Pearson
+ */
+public class ProgressiveRanker implements Ranker {
+  private static final Logger log = LoggerFactory.getLogger(ProgressiveRanker.class);
+  private static final double REFINEMENT_FACTOR = 0.01;
+  private final Object lock = new Object();
+  private PlainRanker ranker; // only used holding the lock
+  private final double tolerance;
+  private final long timeBudgetNanos;
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+  private final ExecutorService refiner = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "ranking-refiner");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+  private volatile long version; // only changed holding the lock
+  private volatile Snapshot snapshot = new Snapshot(0, Collections.<String, Double>emptyMap(), Collections.<String, Double>emptyMap(), Collections.<String, Double>emptyMap());
+
+  /**
+   * @param ranker ranker to solve with, not to be used directly once wrapped as it is replaced by refined copies that do
+   * not have its solve listeners
+   * @param tolerance step size the first answer must reach, e.g. 0.01 for roughly two decimal places
+   * @param timeBudget longest to spend on the first answer
+   */
+  public ProgressiveRanker(PlainRanker ranker, double tolerance, long timeBudget, TimeUnit unit) {
+    this.ranker = ranker;
+    this.tolerance = tolerance;
+    this.timeBudgetNanos = unit.toNanos(timeBudget);
+  }
+
+  @Override
+  public void addMatch(LocalDate date, String team1, String team2, int score1, int score2) {
+    synchronized(lock) {
+      ranker.addMatch(date, team1, team2, score1, score2);
+      version++;
+    }
+  }
+
+  @Override
+  public boolean removeMatch(LocalDate date, String team1, String team2, int score1, int score2) {
+    synchronized(lock) {
+      boolean removed = ranker.removeMatch(date, team1, team2, score1, score2);
+      if(removed) {
+        version++;
+      }
+      return removed;
+    }
+  }
+
+  @Override
+  public boolean updateMatch(LocalDate date, String team1, String team2, int score1, int score2, int correctedScore1, int correctedScore2) {
+    synchronized(lock) {
+      boolean updated = ranker.updateMatch(date, team1, team2, score1, score2, correctedScore1, correctedScore2);
+      if(updated) {
+        version++;
+      }
+      return updated;
+    }
+  }
+
+  @Override
+  public int getGamesPlayed(String team) {
+    synchronized(lock) {
+      return ranker.getGamesPlayed(team);
+    }
+  }
+
+  @Override
+  public double getRanking(String team) {
+    return getSnapshot().getRating(team);
+  }
+
+  @Override
+  public List<String> getTeams() {
+    synchronized(lock) {
+      return ranker.getTeams();
+    }
+  }
+
+  /**
+   * @return ratings of the current matches, meeting at least the tolerance or time budget
+   */
+  public Snapshot getSnapshot() {
+    Snapshot result = snapshot;
+    if(result.getVersion() == version) {
+      return result;
+    }
+    synchronized(lock) {
+      result = snapshot;
+      if(result.getVersion() == version) {
+        return result;
+      }
+      ranker.setTolerance(tolerance);
+      ranker.setTimeBudgetNanos(timeBudgetNanos);
+      result = createSnapshot(ranker, version);
+      publish(result);
+    }
+    refiner.execute(new Refinement(result.getVersion()));
+    return result;
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void shutdown() {
+    refiner.shutdownNow();
+  }
+
+  /**
+   * Solve the ranker and capture its ratings.
+   */
+  private static Snapshot createSnapshot(PlainRanker ranker, long version) {
+    Map<String, Double> ratings = new HashMap<>();
+    Map<String, Double> stepSizes = new HashMap<>();
+    Map<String, Double> errorBounds = new HashMap<>();
+    for(String team : ranker.getTeams()) {
+      ratings.put(team, ranker.getRanking(team));
+      stepSizes.put(team, ranker.getStepSize(team));
+      errorBounds.put(team, ranker.getErrorBound(team));
+    }
+    return new Snapshot(version, ratings, stepSizes, errorBounds);
+  }
+
+  /**
+   * Must be called holding the lock.
+   */
+  private void publish(Snapshot result) {
+    snapshot = result;
+    log.debug("Published ratings version {} with error bound {}", result.getVersion(), result.getMaxErrorBound());
+    for(Listener listener : listeners) {
+      listener.published(result);
+    }
+  }
+
+  private class Refinement implements Runnable {
+    private final long refineVersion;
+
+    private Refinement(long refineVersion) {
+      this.refineVersion = refineVersion;
+    }
+
+    @Override
+    public void run() {
+      PlainRanker working;
+      double stepSize;
+      synchronized(lock) {
+        if(version != refineVersion || snapshot.isFullyRefined()) {
+          // a newer snapshot has its own refinement queued, or there is nothing left to refine
+          return;
+        }
+        working = ranker.copy();
+        stepSize = snapshot.getMaxStepSize();
+      }
+      double stepTolerance = tolerance;
+      while(!Thread.currentThread().isInterrupted() && version == refineVersion) {
+        stepTolerance = Math.min(stepTolerance, stepSize) * REFINEMENT_FACTOR;
+        working.setTolerance(isZero(stepTolerance) ? 0 : stepTolerance);
+        working.setTimeBudgetNanos(Long.MAX_VALUE);
+        Snapshot refined = createSnapshot(working, refineVersion);
+        synchronized(lock) {
+          if(version != refineVersion) {
+            return;
+          }
+          publish(refined);
+          if(refined.isFullyRefined()) {
+            // keep the refined ratings, so that later solves start from them
+            ranker = working;
+            return;
+          }
+        }
+        stepSize = refined.getMaxStepSize();
+      }
+    }
+  }
+
+  public interface Listener {
+    /**
+     * Called holding the lock that adding matches waits for, so should return quickly.
+     */
+    void published(Snapshot snapshot);
+  }
+
+  public static class Snapshot {
+    private final long version;
+    private final Map<String, Double> ratings;
+    private final Map<String, Double> stepSizes;
+    private final Map<String, Double> errorBounds;
+    private final double stepSize;
+    private final double errorBound;
+
+    private Snapshot(long version, Map<String, Double> ratings, Map<String, Double> stepSizes, Map<String, Double> errorBounds) {
+      this.version = version;
+      this.ratings = ratings;
+      this.stepSizes = stepSizes;
+      this.errorBounds = errorBounds;
+      this.stepSize = max(stepSizes.values());
+      this.errorBound = max(errorBounds.values());
+    }
+
+    private static double max(Collection<Double> values) {
+      double result = 0;
+      for(double value : values) {
+        result = Math.max(result, value);
+      }
+      return result;
+    }
+
+    public long getVersion() {
+      return version;
+    }
+
+    public double getRating(String team) {
+      Double rating = ratings.get(team);
+      if(rating == null) {
+        throw new RuntimeException("Unable to find team " + team + " in ratings version " + version);
+      }
+      return rating;
+    }
+
+    public double getStepSize(String team) {
+      getRating(team);
+      return stepSizes.get(team);
+    }
+
+    /**
+     * @return the largest step size of any team
+     */
+    public double getMaxStepSize() {
+      return stepSize;
+    }
+
+    /**
+     * @return how far the team's rating can be from its exact value, as given by PlainRanker.getErrorBound
+     */
+    public double getErrorBound(String team) {
+      getRating(team);
+      return errorBounds.get(team);
+    }
+
+    /**
+     * @return how far any rating can be from its exact value
+     */
+    public double getMaxErrorBound() {
+      return errorBound;
+    }
+
+    /**
+     * @return true once the solver has reached full precision, after which no more refined snapshots are published for
+     * this version; getMaxErrorBound says how close that leaves the ratings
+     */
+    public boolean isFullyRefined() {
+      return isZero(stepSize);
+    }
+
+    @Override
+    public String toString() {
+      return "Snapshot{" +
+        "version=" + version +
+        ", teams=" + ratings.size() +
+        ", stepSize=" + stepSize +
+        ", errorBound=" + errorBound +
+        '}';
+    }
+  }
+}
@@ -4,29 +4,117 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.util.*;
 
 import org.joda.time.LocalDate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Usage:
+ * <pre>
+ * RankCsv [--model name] [--cache dir [--cache-mb n]] [input.csv [output.csv]]
+ * RankCsv --batch [--model name] [--threads n] [--cache dir [--cache-mb n]] inputDirOrManifest outputDir
+ * </pre>
+ * With --cache, match groups solved by earlier runs are loaded from the cache directory rather than solved again.
+ *
  * @author Chris Pearson
  */
 public class RankCsv {
   private static final Logger log = LoggerFactory.getLogger(RankCsv.class);
+  private static final long DEFAULT_CACHE_MB = 256;
+  private static final String USAGE = "RankCsv [--model name] [--cache dir [--cache-mb n]] [input.csv [output.csv]]"
+    + " or RankCsv --batch [--model name] [--threads n] [--cache dir [--cache-mb n]] inputDirOrManifest outputDir";
 
-  public static void main(String[] args) throws IOException {
-//    final Ranker ranker = new PlainRanker();
-    final Ranker ranker = new WeightedGoalDifferenceRanker();
-//    final Ranker ranker = new WinBonusRanker();
-    String inputFile = args.length > 0 ? args[0] : "ranking_input.csv";
-    String outputFile = args.length > 1 ? args[1] : "ranking_output.csv";
+  public static void main(String[] args) throws IOException, InterruptedException {
+    RankerModel model = RankerModel.WEIGHTED_GOAL_DIFFERENCE;
+    boolean batch = false;
+    int threads = Runtime.getRuntime().availableProcessors();
+    Path cacheDir = null;
+    long cacheMb = DEFAULT_CACHE_MB;
+    List<String> arguments = new ArrayList<>();
+    for(int i = 0; i < args.length; i++) {
+      switch(args[i]) {
+        case "--batch":
+          batch = true;
+          break;
+        case "--model":
+          model = RankerModel.fromName(getValue(args, ++i));
+          break;
+        case "--threads":
+          threads = Integer.parseInt(getValue(args, ++i));
+          break;
+        case "--cache":
+          cacheDir = Paths.get(getValue(args, ++i));
+          break;
+        case "--cache-mb":
+          cacheMb = Long.parseLong(getValue(args, ++i));
+          break;
+        default:
+          arguments.add(args[i]);
+      }
+    }
+    ResultCache resultCache = cacheDir == null ? null : new ResultCache(cacheDir, cacheMb * 1024 * 1024);
+    if(batch) {
+      if(arguments.size() != 2) {
+        throw new IllegalArgumentException("Batch mode requires an input directory or manifest and an output directory, got " + arguments);
+      }
+      RankCsvBatch rankCsvBatch = new RankCsvBatch(model, threads);
+      rankCsvBatch.setResultCache(resultCache);
+      rankCsvBatch.run(Paths.get(arguments.get(0)), Paths.get(arguments.get(1)));
+      logCache(resultCache);
+      return;
+    }
+    final PlainRanker ranker = model.create();
+    ranker.setResultCache(resultCache);
+    String inputFile = arguments.size() > 0 ? arguments.get(0) : "ranking_input.csv";
+    String outputFile = arguments.size() > 1 ? arguments.get(1) : "ranking_output.csv";
     log.info("Reading CSV {} and writing output to {}", inputFile, outputFile);
-    List<String> csvLines = Files.readAllLines(Paths.get(inputFile), StandardCharsets.UTF_8);
+    readMatches(Paths.get(inputFile), ranker);
+    // now calculate/display output
+    List<String> teams = sortByRanking(ranker);
+    log.info("Ranking of {} teams complete:", teams.size());
+    for(int i1 = 0; i1 < teams.size(); i1++) {
+      String team = teams.get(i1);
+      log.info("Rank #{}: {} ({} - {} games played)", i1 + 1, team, ranker.getRanking(team), ranker.getGamesPlayed(team));
+    }
+    writeRanking(ranker, teams, Paths.get(outputFile));
+    logCache(resultCache);
+  }
+
+  private static String getValue(String[] args, int index) {
+    if(index >= args.length) {
+      throw new IllegalArgumentException("Missing value for " + args[index - 1] + ", usage: " + USAGE);
+    }
+    return args[index];
+  }
+
+  private static void logCache(ResultCache resultCache) {
+    if(resultCache != null) {
+      log.info("Result cache: {}", resultCache);
+    }
+  }
+
+  /**
+   * Add every valid match in a CSV of team1,score1,score2,team2 lines to the ranker.
+   *
+   * @return the number of matches added
+   */
+  public static int readMatches(Path inputFile, Ranker ranker) throws IOException {
+    return readMatches(Files.readAllLines(inputFile, StandardCharsets.UTF_8), ranker);
+  }
+
+  /**
+   * Add every valid match in the team1,score1,score2,team2[,yyyy-mm-dd] lines to the ranker.  Matches without a date
+   * are played today, as are matches whose fifth column is not a date, so that older CSVs with other extra columns are
+   * still read.
+   *
+   * @return the number of matches added
+   */
+  public static int readMatches(List<String> csvLines, Ranker ranker) {
+    int added = 0;
     for(int i = 0; i < csvLines.size(); i++) {
       String csvLine = csvLines.get(i);
       String[] cols = csvLine.split(",");
@@ -43,16 +131,31 @@ public class RankCsv {
           score2 = Integer.parseInt(cols[2]);
         } catch(NumberFormatException e) {
         }
+        LocalDate date = new LocalDate();
+        if(cols.length > 4) {
+          try {
+            date = LocalDate.parse(cols[4].trim());
+          } catch(IllegalArgumentException e) {
+            log.debug("Treating CSV line {} as played today since its fifth col is not a date: {}", i + 1, csvLine);
+          }
+        }
         if(score1 < 0 || score1 > 10 || score2 < 0 || score2 > 10) {
           log.warn("Ignoring CSV line {} since it has an invalid/missing score: {}", i + 1, csvLine);
         } else {
           String team1 = cols[0];
           String team2 = cols[3];
-          ranker.addMatch(new LocalDate(), team1, team2, score1, score2);
+          ranker.addMatch(date, team1, team2, score1, score2);
+          added++;
         }
       }
     }
-    // now calculate/display output
+    return added;
+  }
+
+  /**
+   * @return the ranker's teams, best first
+   */
+  public static List<String> sortByRanking(final Ranker ranker) {
     List<String> teams = ranker.getTeams();
     Collections.sort(teams, new Comparator<String>() {
       @Override
@@ -60,11 +163,16 @@ public class RankCsv {
         return Double.compare(ranker.getRanking(o2), ranker.getRanking(o1));
       }
     });
-    log.info("Ranking of {} teams complete:", teams.size());
-    try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(outputFile), StandardCharsets.UTF_8)) {
-      for(int i1 = 0; i1 < teams.size(); i1++) {
-        String team = teams.get(i1);
-        log.info("Rank #{}: {} ({} - {} games played)", i1 + 1, team, ranker.getRanking(team), ranker.getGamesPlayed(team));
+    return teams;
+  }
+
+  /**
+   * Write rank,team,rating lines for the already sorted teams.
+   */
+  public static void writeRanking(Ranker ranker, List<String> sortedTeams, Path outputFile) throws IOException {
+    try (BufferedWriter writer = Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8)) {
+      for(int i1 = 0; i1 < sortedTeams.size(); i1++) {
+        String team = sortedTeams.get(i1);
         writer.write(Integer.toString(i1 + 1) + "," + team + "," + ranker.getRanking(team) + "\r\n");
       }
     }
@@ -0,0 +1,273 @@
+package com.twock.ranking;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ranks many CSV files in one JVM.  Parsing, solving and writing each run on their own thread pool so that the stages
+ * of different files overlap, and a failure in one file does not affect the others.
+ * <p/>
+ * Each pool only queues as many files as it has threads, and a stage that cannot hand its file on runs the next stage
+ * itself, so parsing cannot run ahead of solving and writing and only a few parsed files are held in memory at once.
+ *
+ * @author Chris Pearson
+ */
+public class RankCsvBatch {
+  private static final Logger log = LoggerFactory.getLogger(RankCsvBatch.class);
+  private static final double NANOS_PER_SECOND = 1000000000d;
+  private final RankerModel model;
+  private final int threads;
+  private volatile ResultCache resultCache;
+
+  public RankCsvBatch(RankerModel model, int threads) {
+    this.model = model;
+    this.threads = threads;
+  }
+
+  /**
+   * @param resultCache cache shared by every file's ranker, or null to solve every file in full
+   */
+  public void setResultCache(ResultCache resultCache) {
+    this.resultCache = resultCache;
+  }
+
+  /**
+   * Rank every input, writing each output as name_output.csv in the output directory.
+   *
+   * @param input a directory whose *.csv files are ranked, or a manifest listing one input file per line
+   * @param outputDir directory to write the rankings to
+   * @return the result of each input, in input order
+   */
+  public List<FileResult> run(Path input, Path outputDir) throws IOException, InterruptedException {
+    List<Path> inputs = listInputs(input);
+    Files.createDirectories(outputDir);
+    log.info("Ranking {} files from {} into {} using {} with {} threads", inputs.size(), input, outputDir, model, threads);
+    ExecutorService parsePool = newBoundedPool(threads);
+    ExecutorService solvePool = newBoundedPool(threads);
+    ExecutorService writePool = newBoundedPool(Math.max(1, threads / 2));
+    long start = System.nanoTime();
+    List<FileResult> results = new ArrayList<>(inputs.size());
+    try {
+      CountDownLatch done = new CountDownLatch(inputs.size());
+      for(Path inputFile : inputs) {
+        String name = inputFile.getFileName().toString();
+        if(name.toLowerCase().endsWith(".csv")) {
+          name = name.substring(0, name.length() - 4);
+        }
+        FileResult result = new FileResult(inputFile, outputDir.resolve(name + "_output.csv"));
+        results.add(result);
+        parsePool.execute(new ParseStage(result, done, solvePool, writePool));
+      }
+      done.await();
+    } finally {
+      parsePool.shutdown();
+      solvePool.shutdown();
+      writePool.shutdown();
+    }
+    logSummary(results, System.nanoTime() - start);
+    return results;
+  }
+
+  /**
+   * @return a pool queueing at most one task per thread, running any further task on the submitting thread
+   */
+  private static ExecutorService newBoundedPool(int threads) {
+    return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(threads), new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  static List<Path> listInputs(Path input) throws IOException {
+    List<Path> inputs = new ArrayList<>();
+    if(Files.isDirectory(input)) {
+      try (DirectoryStream<Path> csvFiles = Files.newDirectoryStream(input, "*.csv")) {
+        for(Path csvFile : csvFiles) {
+          inputs.add(csvFile);
+        }
+      }
+      Collections.sort(inputs);
+    } else {
+      Path baseDir = input.toAbsolutePath().getParent();
+      for(String line : Files.readAllLines(input, StandardCharsets.UTF_8)) {
+        line = line.trim();
+        if(!line.isEmpty() && !line.startsWith("#")) {
+          inputs.add(baseDir.resolve(line));
+        }
+      }
+    }
+    return inputs;
+  }
+
+  private void logSummary(List<FileResult> results, long elapsedNanos) {
+    int failed = 0;
+    long matches = 0;
+    long parseNanos = 0;
+    long solveNanos = 0;
+    long writeNanos = 0;
+    for(FileResult result : results) {
+      if(result.getError() != null) {
+        failed++;
+        log.error("Failed to rank {}: {}", result.getInput(), result.getError().toString());
+      }
+      matches += result.getMatches();
+      parseNanos += result.getParseNanos();
+      solveNanos += result.getSolveNanos();
+      writeNanos += result.getWriteNanos();
+    }
+    double elapsed = elapsedNanos / NANOS_PER_SECOND;
+    log.info("Ranked {} of {} files ({} failed), {} matches in {}s: {} files/s, {} matches/s", results.size() - failed, results.size(), failed, matches, elapsed, results.size() / elapsed, matches / elapsed);
+    log.info("Total stage times: parse {}s, solve {}s, write {}s", parseNanos / NANOS_PER_SECOND, solveNanos / NANOS_PER_SECOND, writeNanos / NANOS_PER_SECOND);
+  }
+
+  public static class FileResult {
+    private final Path input;
+    private final Path output;
+    private Ranker ranker;
+    private List<String> sortedTeams;
+    private int matches;
+    private long parseNanos;
+    private long solveNanos;
+    private long writeNanos;
+    private Throwable error;
+
+    public FileResult(Path input, Path output) {
+      this.input = input;
+      this.output = output;
+    }
+
+    public Path getInput() {
+      return input;
+    }
+
+    public Path getOutput() {
+      return output;
+    }
+
+    public int getMatches() {
+      return matches;
+    }
+
+    public long getParseNanos() {
+      return parseNanos;
+    }
+
+    public long getSolveNanos() {
+      return solveNanos;
+    }
+
+    public long getWriteNanos() {
+      return writeNanos;
+    }
+
+    public Throwable getError() {
+      return error;
+    }
+
+    @Override
+    public String toString() {
+      return "FileResult{" +
+        "input=" + input +
+        ", output=" + output +
+        ", matches=" + matches +
+        ", parseNanos=" + parseNanos +
+        ", solveNanos=" + solveNanos +
+        ", writeNanos=" + writeNanos +
+        ", error=" + error +
+        '}';
+    }
+  }
+
+  /**
+   * One step of the pipeline for a single file; any failure completes the file with that error.
+   */
+  private abstract static class Stage implements Runnable {
+    protected final FileResult result;
+    protected final CountDownLatch done;
+
+    protected Stage(FileResult result, CountDownLatch done) {
+      this.result = result;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      try {
+        execute();
+      } catch(Exception | Error e) {
+        result.error = e;
+        // free the matches of a failed file straight away
+        result.ranker = null;
+        done.countDown();
+      }
+    }
+
+    protected abstract void execute() throws Exception;
+  }
+
+  private class ParseStage extends Stage {
+    private final ExecutorService solvePool;
+    private final ExecutorService writePool;
+
+    ParseStage(FileResult result, CountDownLatch done, ExecutorService solvePool, ExecutorService writePool) {
+      super(result, done);
+      this.solvePool = solvePool;
+      this.writePool = writePool;
+    }
+
+    @Override
+    protected void execute() throws IOException {
+      long start = System.nanoTime();
+      PlainRanker ranker = model.create();
+      ranker.setResultCache(resultCache);
+      result.ranker = ranker;
+      result.matches = RankCsv.readMatches(result.input, result.ranker);
+      result.parseNanos = System.nanoTime() - start;
+      solvePool.execute(new SolveStage(result, done, writePool));
+    }
+  }
+
+  private static class SolveStage extends Stage {
+    private final ExecutorService writePool;
+
+    SolveStage(FileResult result, CountDownLatch done, ExecutorService writePool) {
+      super(result, done);
+      this.writePool = writePool;
+    }
+
+    @Override
+    protected void execute() {
+      long start = System.nanoTime();
+      result.sortedTeams = RankCsv.sortByRanking(result.ranker);
+      result.solveNanos = System.nanoTime() - start;
+      writePool.execute(new WriteStage(result, done));
+    }
+  }
+
+  private static class WriteStage extends Stage {
+    WriteStage(FileResult result, CountDownLatch done) {
+      super(result, done);
+    }
+
+    @Override
+    protected void execute() throws IOException {
+      long start = System.nanoTime();
+      RankCsv.writeRanking(result.ranker, result.sortedTeams, result.output);
+      result.writeNanos = System.nanoTime() - start;
+      result.ranker = null;
+      result.sortedTeams = null;
+      done.countDown();
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package com.twock.ranking;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Solves shards of a ranking for a ShardedRanker.  Each connection sends any number of shard requests, each answered
+ * with the solved ratings.
+ * <pre>
+ * RankWorker [port]
+ * </pre>
+ *
+ * @author Chris Pearson
+ */
+public class RankWorker {
+  private static final Logger log = LoggerFactory.getLogger(RankWorker.class);
+  private final ServerSocket serverSocket;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final Set<Socket> openSockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+  public RankWorker(int port) throws IOException {
+    serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+  }
+
+  public static void main(String[] args) throws IOException {
+    new RankWorker(args.length > 0 ? Integer.parseInt(args[0]) : 0).start();
+  }
+
+  public InetSocketAddress getAddress() {
+    return (InetSocketAddress)serverSocket.getLocalSocketAddress();
+  }
+
+  public void start() {
+    log.info("Rank worker listening on {}", getAddress());
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        while(!serverSocket.isClosed()) {
+          try {
+            final Socket socket = serverSocket.accept();
+            try {
+              executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                  serve(socket);
+                }
+              });
+            } catch(RejectedExecutionException e) {
+              // stopped since accepting it
+              closeQuietly(socket);
+            }
+          } catch(IOException e) {
+            if(!serverSocket.isClosed()) {
+              log.error("Failed to accept connection", e);
+            }
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Stop accepting connections and drop any in progress by closing their sockets, as blocked socket reads cannot be
+   * interrupted.
+   */
+  public void stop() throws IOException {
+    serverSocket.close();
+    executor.shutdownNow();
+    for(Socket socket : openSockets) {
+      closeQuietly(socket);
+    }
+  }
+
+  private void serve(Socket socket) {
+    openSockets.add(socket);
+    if(serverSocket.isClosed()) {
+      // stopped after accepting this connection but before it was tracked
+      openSockets.remove(socket);
+      closeQuietly(socket);
+      return;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+      while(!Thread.currentThread().isInterrupted()) {
+        ShardJob job;
+        try {
+          job = ShardJob.readRequest(in);
+        } catch(EOFException e) {
+          return;
+        }
+        long start = System.nanoTime();
+        job.solve();
+        job.writeResponse(out);
+        log.debug("Solved shard of {} teams and {} pairings in {}ms", job.ratings.length, job.team1.length, (System.nanoTime() - start) / 1000000);
+      }
+    } catch(IOException e) {
+      if(!serverSocket.isClosed()) {
+        log.warn("Connection from {} failed: {}", socket.getRemoteSocketAddress(), e.toString());
+      }
+    } finally {
+      openSockets.remove(socket);
+      closeQuietly(socket);
+    }
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch(IOException e) {
+      log.debug("Failed to close {}: {}", socket, e.toString());
+    }
+  }
+}
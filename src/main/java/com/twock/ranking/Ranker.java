@@ -14,6 +14,21 @@ public interface Ranker {
 
   void addMatch(LocalDate date, String team1, String team2, int score1, int score2);
 
+  /**
+   * Remove one match previously added with the same date, teams and scores.
+   *
+   * @return false if there was no such match
+   */
+  boolean removeMatch(LocalDate date, String team1, String team2, int score1, int score2);
+
+  /**
+   * Correct the scores of one match previously added.  A match with the wrong teams or date is corrected by removing it
+   * and adding the right one.
+   *
+   * @return false if there was no such match
+   */
+  boolean updateMatch(LocalDate date, String team1, String team2, int score1, int score2, int correctedScore1, int correctedScore2);
+
   int getGamesPlayed(String team);
 
   double getRanking(String team1);
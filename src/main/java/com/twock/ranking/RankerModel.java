@@ -0,0 +1,37 @@
+package com.twock.ranking;
+
+/**
+ * The available ranking models, so that the model can be chosen at runtime.
+ *
+ * @author Chris Pearson
+ */
+public enum RankerModel {
+  PLAIN {
+    @Override
+    public PlainRanker create() {
+      return new PlainRanker();
+    }
+  },
+  WEIGHTED_GOAL_DIFFERENCE {
+    @Override
+    public PlainRanker create() {
+      return new WeightedGoalDifferenceRanker();
+    }
+  },
+  WIN_BONUS {
+    @Override
+    public PlainRanker create() {
+      return new WinBonusRanker();
+    }
+  };
+
+  public abstract PlainRanker create();
+
+  /**
+   * @param name model name, case insensitive and with either dashes or underscores, e.g. win-bonus
+   * @return the matching model
+   */
+  public static RankerModel fromName(String name) {
+    return valueOf(name.trim().toUpperCase().replace('-', '_'));
+  }
+}
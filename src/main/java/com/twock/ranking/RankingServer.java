@@ -0,0 +1,237 @@
+package com.twock.ranking;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves a ranker over HTTP using the JDK's built-in server:
+ * <ul>
+ * <li>POST /matches - add one or more team1,score1,score2,team2[,yyyy-mm-dd] lines</li>
+ * <li>GET /leaderboard - rank,team,rating,gamesPlayed lines</li>
+ * <li>GET /teams/{team} - team,rating,gamesPlayed</li>
+ * </ul>
+ * Every accepted submission creates a new ranking version, used as the ETag of the GET responses along with a random id
+ * for this server instance, so that an ETag cached before a restart never matches the restarted server's data.  The
+ * serialised leaderboard and team responses are cached for the current version and requests with a matching
+ * If-None-Match are answered with 304.
+ *
+ * @author Chris Pearson
+ */
+public class RankingServer {
+  private static final Logger log = LoggerFactory.getLogger(RankingServer.class);
+  private static final String CSV_CONTENT_TYPE = "text/csv; charset=UTF-8";
+  private final Ranker ranker;
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final String instanceId = UUID.randomUUID().toString();
+  private final ConcurrentMap<String, CachedResponse> teamResponses = new ConcurrentHashMap<>();
+  private volatile long version = 1;
+  private volatile CachedResponse leaderboard;
+
+  public RankingServer(Ranker ranker, InetSocketAddress address, int threads) throws IOException {
+    this.ranker = ranker;
+    server = HttpServer.create(address, 0);
+    executor = Executors.newFixedThreadPool(threads);
+    server.setExecutor(executor);
+    server.createContext("/matches", new MatchesHandler());
+    server.createContext("/leaderboard", new LeaderboardHandler());
+    server.createContext("/teams/", new TeamHandler());
+  }
+
+  public static void main(String[] args) throws IOException {
+    RankerModel model = args.length > 1 ? RankerModel.fromName(args[1]) : RankerModel.WEIGHTED_GOAL_DIFFERENCE;
+    RankingServer server = new RankingServer(model.create(), new InetSocketAddress(args.length > 0 ? Integer.parseInt(args[0]) : 8080), Runtime.getRuntime().availableProcessors());
+    server.start();
+  }
+
+  public void start() {
+    server.start();
+    log.info("Ranking server listening on {}", server.getAddress());
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdown();
+  }
+
+  public InetSocketAddress getAddress() {
+    return server.getAddress();
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  private String getETag() {
+    return "\"" + instanceId + '-' + version + "\"";
+  }
+
+  private boolean isNotModified(HttpExchange exchange, String etag) throws IOException {
+    String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+    if(ifNoneMatch != null && (ifNoneMatch.equals(etag) || ifNoneMatch.equals("*"))) {
+      exchange.getResponseHeaders().set("ETag", etag);
+      exchange.sendResponseHeaders(304, -1);
+      exchange.close();
+      return true;
+    }
+    return false;
+  }
+
+  private static void send(HttpExchange exchange, int status, String etag, byte[] body) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", CSV_CONTENT_TYPE);
+    if(etag != null) {
+      exchange.getResponseHeaders().set("ETag", etag);
+    }
+    if("HEAD".equals(exchange.getRequestMethod())) {
+      exchange.sendResponseHeaders(status, -1);
+    } else {
+      exchange.sendResponseHeaders(status, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    }
+    exchange.close();
+  }
+
+  private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+    send(exchange, status, null, (message + "\r\n").getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static boolean isGet(HttpExchange exchange) throws IOException {
+    String method = exchange.getRequestMethod();
+    if("GET".equals(method) || "HEAD".equals(method)) {
+      return true;
+    }
+    exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+    sendError(exchange, 405, "Method " + method + " not allowed");
+    return false;
+  }
+
+  private CachedResponse getLeaderboard() {
+    CachedResponse cached = leaderboard;
+    if(cached != null && cached.version == version) {
+      return cached;
+    }
+    synchronized(ranker) {
+      // another request may have serialised this version while we waited
+      cached = leaderboard;
+      if(cached != null && cached.version == version) {
+        return cached;
+      }
+      StringBuilder sb = new StringBuilder();
+      List<String> teams = RankCsv.sortByRanking(ranker);
+      for(int i = 0; i < teams.size(); i++) {
+        String team = teams.get(i);
+        sb.append(i + 1).append(',').append(team).append(',').append(ranker.getRanking(team)).append(',').append(ranker.getGamesPlayed(team)).append("\r\n");
+      }
+      cached = new CachedResponse(version, getETag(), sb.toString().getBytes(StandardCharsets.UTF_8));
+      leaderboard = cached;
+      return cached;
+    }
+  }
+
+  /**
+   * @return the team's response for the current version, or null if the team has not played
+   */
+  private CachedResponse getTeam(String team) {
+    CachedResponse cached = teamResponses.get(team);
+    if(cached != null && cached.version == version) {
+      return cached;
+    }
+    synchronized(ranker) {
+      if(ranker.getGamesPlayed(team) == 0) {
+        return null;
+      }
+      String body = team + "," + ranker.getRanking(team) + "," + ranker.getGamesPlayed(team) + "\r\n";
+      cached = new CachedResponse(version, getETag(), body.getBytes(StandardCharsets.UTF_8));
+      teamResponses.put(team, cached);
+      return cached;
+    }
+  }
+
+  private static class CachedResponse {
+    private final long version;
+    private final String etag;
+    private final byte[] body;
+
+    private CachedResponse(long version, String etag, byte[] body) {
+      this.version = version;
+      this.etag = etag;
+      this.body = body;
+    }
+  }
+
+  private class MatchesHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      if(!"POST".equals(exchange.getRequestMethod())) {
+        exchange.getResponseHeaders().set("Allow", "POST");
+        sendError(exchange, 405, "Method " + exchange.getRequestMethod() + " not allowed");
+        return;
+      }
+      List<String> lines = new ArrayList<>();
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+        String line;
+        while((line = reader.readLine()) != null) {
+          if(!line.trim().isEmpty()) {
+            lines.add(line);
+          }
+        }
+      }
+      int added;
+      synchronized(ranker) {
+        added = RankCsv.readMatches(lines, ranker);
+        if(added > 0) {
+          version++;
+          teamResponses.clear();
+        }
+      }
+      if(added == 0) {
+        sendError(exchange, 400, "No valid matches in " + lines.size() + " line(s)");
+      } else {
+        send(exchange, 200, getETag(), ("Added " + added + " of " + lines.size() + " match(es)\r\n").getBytes(StandardCharsets.UTF_8));
+      }
+    }
+  }
+
+  private class LeaderboardHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      if(!isGet(exchange) || isNotModified(exchange, getETag())) {
+        return;
+      }
+      CachedResponse response = getLeaderboard();
+      send(exchange, 200, response.etag, response.body);
+    }
+  }
+
+  private class TeamHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      if(!isGet(exchange) || isNotModified(exchange, getETag())) {
+        return;
+      }
+      String team = exchange.getRequestURI().getPath().substring("/teams/".length());
+      CachedResponse response = getTeam(team);
+      if(response == null) {
+        sendError(exchange, 404, "Unknown team " + team);
+      } else {
+        send(exchange, 200, response.etag, response.body);
+      }
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.twock.ranking;
+
+/**
+ * A change to one team's rating made by a single solve.
+ *
+ * @author Chris Pearson
+ */
+public class RatingChange {
+  private final long sequence;
+  private final String team;
+  private final double oldRating;
+  private final double newRating;
+  private final int oldRank;
+  private final int newRank;
+
+  public RatingChange(long sequence, String team, double oldRating, double newRating, int oldRank, int newRank) {
+    this.sequence = sequence;
+    this.team = team;
+    this.oldRating = oldRating;
+    this.newRating = newRating;
+    this.oldRank = oldRank;
+    this.newRank = newRank;
+  }
+
+  /**
+   * @return number of the solve that made this change, starting at 1; all changes from one solve share a sequence
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  public String getTeam() {
+    return team;
+  }
+
+  /**
+   * @return the rating last published for the team, or NaN for a team that had no rating
+   */
+  public double getOldRating() {
+    return oldRating;
+  }
+
+  /**
+   * @return the rating after the change, or NaN for a team removed from the ratings
+   */
+  public double getNewRating() {
+    return newRating;
+  }
+
+  /**
+   * @return the rank before the change, or 0 for a team that had no rating
+   */
+  public int getOldRank() {
+    return oldRank;
+  }
+
+  /**
+   * @return the rank after the change, or 0 for a team removed from the ratings
+   */
+  public int getNewRank() {
+    return newRank;
+  }
+
+  /**
+   * @return true if the team's last match was removed, so it no longer has a rating
+   */
+  public boolean isRemoved() {
+    return Double.isNaN(newRating);
+  }
+
+  /**
+   * @return how many places the team moved up, negative when it moved down, 0 for a team added or removed
+   */
+  public int getRankChange() {
+    return oldRank == 0 || newRank == 0 ? 0 : oldRank - newRank;
+  }
+
+  @Override
+  public String toString() {
+    return "RatingChange{" +
+      "sequence=" + sequence +
+      ", team='" + team + '\'' +
+      ", oldRating=" + oldRating +
+      ", newRating=" + newRating +
+      ", oldRank=" + oldRank +
+      ", newRank=" + newRank +
+      '}';
+  }
+}
@@ -0,0 +1,310 @@
+package com.twock.ranking;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.lang.Math.abs;
+
+/**
+ * Publishes the teams whose ratings have moved by more than epsilon since they were last published, after each solve of
+ * a PlainRanker, along with their change in rank, and the teams dropped from the ratings when their last match is
+ * removed.  Changes are measured from the last published rating, so that many small moves still add up to a published
+ * change rather than leaving subscribers with a stale rating.  Teams whose rank shifted only
+ * because other teams moved past them are not published.  Each subscriber
+ * receives the changes in solve order through a bounded queue; when a subscriber's queue is full the solving thread
+ * waits for it to catch up.
+ * <p/>
+ * Ranks are kept in an order statistic tree of all ratings, so that a solve which re-solved only a few groups costs
+ * time in proportion to the teams it changed rather than to every team.
+ *
+ * @author Chris Pearson
+ */
+public class RatingChangeFeed implements PlainRanker.SolveListener {
+  private static final Logger log = LoggerFactory.getLogger(RatingChangeFeed.class);
+  private static final long OFFER_MILLIS = 100;
+  private final double epsilon;
+  private final Map<String, Double> ratings = new HashMap<>();
+  private final Map<String, Double> published = new HashMap<>();
+  private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+  private final RatingOrder order = new RatingOrder();
+  private long sequence;
+
+  /**
+   * @param epsilon smallest rating change to publish
+   */
+  public RatingChangeFeed(double epsilon) {
+    this.epsilon = epsilon;
+  }
+
+  /**
+   * Create a feed of the ranker's rating changes.
+   */
+  public static RatingChangeFeed attach(PlainRanker ranker, double epsilon) {
+    RatingChangeFeed feed = new RatingChangeFeed(epsilon);
+    ranker.addSolveListener(feed);
+    return feed;
+  }
+
+  /**
+   * @param capacity number of changes that can be waiting before the solving thread is held up
+   * @return a subscription to all changes from the next solve onwards
+   */
+  public Subscription subscribe(int capacity) {
+    Subscription subscription = new Subscription(capacity);
+    subscriptions.add(subscription);
+    return subscription;
+  }
+
+  @Override
+  public void solved(Map<String, Double> previous, Map<String, Double> updated) {
+    sequence++;
+    List<String> teams = new ArrayList<>(updated.keySet());
+    Collections.sort(teams);
+    Map<String, Integer> oldRanks = new HashMap<>();
+    for(String team : teams) {
+      Double current = ratings.get(team);
+      if(current != null) {
+        oldRanks.put(team, getRank(current));
+      }
+    }
+    for(String team : teams) {
+      double newRating = updated.get(team);
+      Double current = ratings.put(team, newRating);
+      if(current != null) {
+        order.remove(current);
+      }
+      order.add(newRating);
+    }
+    List<RatingChange> changes = new ArrayList<>();
+    for(String team : teams) {
+      Double oldRating = published.get(team);
+      double newRating = updated.get(team);
+      if(oldRating == null) {
+        changes.add(new RatingChange(sequence, team, Double.NaN, newRating, 0, getRank(newRating)));
+        published.put(team, newRating);
+      } else if(abs(newRating - oldRating) > epsilon) {
+        Integer oldRank = oldRanks.get(team);
+        changes.add(new RatingChange(sequence, team, oldRating, newRating, oldRank == null ? 0 : oldRank, getRank(newRating)));
+        published.put(team, newRating);
+      }
+    }
+    log.debug("Solve {} changed {} of {} re-solved teams", sequence, changes.size(), updated.size());
+    if(!changes.isEmpty()) {
+      for(Subscription subscription : subscriptions) {
+        subscription.deliver(changes);
+      }
+    }
+  }
+
+  @Override
+  public void removed(Map<String, Double> previous) {
+    sequence++;
+    List<String> teams = new ArrayList<>(previous.keySet());
+    Collections.sort(teams);
+    Map<String, Integer> oldRanks = new HashMap<>();
+    for(String team : teams) {
+      Double current = ratings.get(team);
+      if(current != null) {
+        oldRanks.put(team, getRank(current));
+      }
+    }
+    List<RatingChange> changes = new ArrayList<>();
+    for(String team : teams) {
+      Double current = ratings.remove(team);
+      Double lastPublished = published.remove(team);
+      if(current != null) {
+        order.remove(current);
+        changes.add(new RatingChange(sequence, team, lastPublished == null ? current : lastPublished, Double.NaN, oldRanks.get(team), 0));
+      }
+    }
+    log.debug("Solve {} removed {} teams", sequence, changes.size());
+    if(!changes.isEmpty()) {
+      for(Subscription subscription : subscriptions) {
+        subscription.deliver(changes);
+      }
+    }
+  }
+
+  /**
+   * @return 1 + the number of ratings above this one
+   */
+  private int getRank(double rating) {
+    return 1 + order.countAbove(rating);
+  }
+
+  public class Subscription {
+    private final BlockingQueue<RatingChange> queue;
+    private volatile boolean cancelled;
+
+    private Subscription(int capacity) {
+      queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Wait for the next change.
+     */
+    public RatingChange take() throws InterruptedException {
+      return queue.take();
+    }
+
+    /**
+     * @return the next change, or null if there is none within the timeout
+     */
+    public RatingChange poll(long timeout, TimeUnit unit) throws InterruptedException {
+      return queue.poll(timeout, unit);
+    }
+
+    /**
+     * Stop receiving changes, releasing the solving thread if it is waiting on this subscription.
+     */
+    public void cancel() {
+      cancelled = true;
+      subscriptions.remove(this);
+      queue.clear();
+    }
+
+    private void deliver(List<RatingChange> changes) {
+      try {
+        for(RatingChange change : changes) {
+          while(!cancelled && !queue.offer(change, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+            log.trace("Waiting for subscriber to take change {}", change);
+          }
+        }
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted publishing rating changes", e);
+      }
+    }
+  }
+
+  /**
+   * A treap of ratings, each node counting the ratings beneath it, so that ratings are moved and ranked in logarithmic
+   * time.
+   */
+  private static class RatingOrder {
+    private final Random random = new Random(0);
+    private Node root;
+
+    void add(double rating) {
+      root = add(root, new Node(rating, random.nextInt()));
+    }
+
+    /**
+     * Remove one instance of the rating, which must be present.
+     */
+    void remove(double rating) {
+      root = remove(root, rating);
+    }
+
+    int countAbove(double rating) {
+      int result = 0;
+      Node node = root;
+      while(node != null) {
+        if(node.rating > rating) {
+          result += 1 + size(node.right);
+          node = node.left;
+        } else {
+          node = node.right;
+        }
+      }
+      return result;
+    }
+
+    private static Node add(Node node, Node added) {
+      if(node == null) {
+        return added;
+      }
+      if(added.rating < node.rating) {
+        node.left = add(node.left, added);
+        if(node.left.priority > node.priority) {
+          node = rotateRight(node);
+        }
+      } else {
+        node.right = add(node.right, added);
+        if(node.right.priority > node.priority) {
+          node = rotateLeft(node);
+        }
+      }
+      update(node);
+      return node;
+    }
+
+    private static Node remove(Node node, double rating) {
+      if(node == null) {
+        throw new IllegalStateException("Rating " + rating + " is not in the feed's ratings");
+      }
+      if(rating < node.rating) {
+        node.left = remove(node.left, rating);
+      } else if(rating > node.rating) {
+        node.right = remove(node.right, rating);
+      } else {
+        return merge(node.left, node.right);
+      }
+      update(node);
+      return node;
+    }
+
+    /**
+     * @return the two treaps joined, every rating in low being no higher than any in high
+     */
+    private static Node merge(Node low, Node high) {
+      if(low == null) {
+        return high;
+      }
+      if(high == null) {
+        return low;
+      }
+      if(low.priority > high.priority) {
+        low.right = merge(low.right, high);
+        update(low);
+        return low;
+      }
+      high.left = merge(low, high.left);
+      update(high);
+      return high;
+    }
+
+    private static Node rotateRight(Node node) {
+      Node left = node.left;
+      node.left = left.right;
+      update(node);
+      left.right = node;
+      return left;
+    }
+
+    private static Node rotateLeft(Node node) {
+      Node right = node.right;
+      node.right = right.left;
+      update(node);
+      right.left = node;
+      return right;
+    }
+
+    private static void update(Node node) {
+      node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    private static int size(Node node) {
+      return node == null ? 0 : node.size;
+    }
+  }
+
+  private static class Node {
+    private final double rating;
+    private final int priority;
+    private int size = 1;
+    private Node left;
+    private Node right;
+
+    private Node(double rating, int priority) {
+      this.rating = rating;
+      this.priority = priority;
+    }
+  }
+}
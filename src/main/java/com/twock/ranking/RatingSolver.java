@@ -0,0 +1,21 @@
+package com.twock.ranking;
+
+/**
+ * An alternative to PlainRanker's own search for solving the ratings of a single connected match group.
+ *
+ * @author Chris Pearson
+ */
+public interface RatingSolver {
+  /**
+   * Find the ratings minimising the sum over all pairings of (team1 rating - team2 rating - skill)^2, averaging 50.
+   *
+   * @param team1 index of the first team of each pairing
+   * @param team2 index of the second team of each pairing
+   * @param skill relative skill of each pairing, positive when team1 has won
+   * @param ratings initial rating of each team, replaced by the solution
+   * @param tolerance largest acceptable final step size, or 0 for full precision
+   * @param timeBudgetNanos maximum time to search for, or Long.MAX_VALUE for no limit
+   * @return the final step size, 0 if fully converged
+   */
+  double solve(int[] team1, int[] team2, double[] skill, double[] ratings, double tolerance, long timeBudgetNanos);
+}
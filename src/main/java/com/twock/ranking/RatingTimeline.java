@@ -0,0 +1,98 @@
+package com.twock.ranking;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replays a match history in date order, producing each team's rating as of every match day.  Each day only re-solves
+ * the match groups that played that day, starting from the previous day's ratings, and only ratings that have changed
+ * by more than the change tolerance are emitted, so that re-solving a group does not report solver noise as a change.
+ *
+ * @author Chris Pearson
+ */
+public class RatingTimeline {
+  private static final Logger log = LoggerFactory.getLogger(RatingTimeline.class);
+  public static final double DEFAULT_CHANGE_TOLERANCE = 0.000001;
+  private final PlainRanker ranker;
+  private final double changeTolerance;
+
+  /**
+   * @param ranker ranker to replay the matches into, which determines the ranking model used
+   */
+  public RatingTimeline(PlainRanker ranker) {
+    this(ranker, DEFAULT_CHANGE_TOLERANCE);
+  }
+
+  /**
+   * @param ranker ranker to replay the matches into, which determines the ranking model used
+   * @param changeTolerance smallest change in a team's rating that is emitted
+   */
+  public RatingTimeline(PlainRanker ranker, double changeTolerance) {
+    this.ranker = ranker;
+    this.changeTolerance = changeTolerance;
+  }
+
+  /**
+   * Add the matches to the ranker one day at a time, reporting ratings after each day.
+   *
+   * @param matches matches to replay, in any order
+   * @param listener receives a (team, date, rating) entry whenever a team's rating changes by more than the tolerance
+   * @throws IOException if the listener fails to write an entry
+   */
+  public void replay(Collection<Match> matches, Listener listener) throws IOException {
+    List<Match> sorted = new ArrayList<>(matches);
+    Collections.sort(sorted, new Comparator<Match>() {
+      @Override
+      public int compare(Match o1, Match o2) {
+        return o1.getDate().compareTo(o2.getDate());
+      }
+    });
+    Map<String, Double> lastRatings = new HashMap<>();
+    int days = 0;
+    for(int i = 0; i < sorted.size(); ) {
+      LocalDate date = sorted.get(i).getDate();
+      for(; i < sorted.size() && sorted.get(i).getDate().equals(date); i++) {
+        Match match = sorted.get(i);
+        ranker.addMatch(match.getDate(), match.getTeam1(), match.getTeam2(), match.getTeam1Score(), match.getTeam2Score());
+      }
+      Map<String, Double> changed = ranker.solveChangedGroups();
+      List<String> teams = new ArrayList<>(changed.keySet());
+      Collections.sort(teams);
+      for(String team : teams) {
+        double rating = changed.get(team);
+        // compared against the last emitted rating, so that changes below the tolerance cannot accumulate unreported
+        Double lastRating = lastRatings.get(team);
+        if(lastRating == null || Math.abs(rating - lastRating) > changeTolerance) {
+          lastRatings.put(team, rating);
+          listener.rating(team, date, rating);
+        }
+      }
+      days++;
+    }
+    log.info("Replayed {} matches over {} days for {} teams", sorted.size(), days, lastRatings.size());
+  }
+
+  /**
+   * Create a listener writing each entry as a team,date,rating CSV line.
+   *
+   * @param writer destination of the CSV lines
+   * @return listener writing to the writer
+   */
+  public static Listener csvWriter(final Writer writer) {
+    return new Listener() {
+      @Override
+      public void rating(String team, LocalDate date, double rating) throws IOException {
+        writer.write(team + "," + date + "," + rating + "\r\n");
+      }
+    };
+  }
+
+  public interface Listener {
+    void rating(String team, LocalDate date, double rating) throws IOException;
+  }
+}
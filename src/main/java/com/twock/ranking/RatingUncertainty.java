@@ -0,0 +1,171 @@
+package com.twock.ranking;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.lang.Math.sqrt;
+
+/**
+ * Estimates a standard error for each rating, so that teams with few or inconsistent results can be shown with a wider
+ * confidence band.  Treating each pairing's relative skill as the difference in ratings plus noise, the covariance of
+ * the least squares ratings is the residual variance times the pseudo-inverse of the pairings' graph Laplacian.  Only
+ * its diagonal is needed, which is estimated without inverting anything by averaging z * (L<sup>+</sup> z) over random
+ * probe vectors z of +1s and -1s, each probe costing one solve.
+ * <p/>
+ * The probes run in parallel and the estimate's relative error shrinks with the square root of their number.  The
+ * residual variance is pooled over every match group, and the standard errors are relative to the average rating of
+ * each group.
+ *
+ * @author Chris Pearson
+ */
+public class RatingUncertainty {
+  private static final Logger log = LoggerFactory.getLogger(RatingUncertainty.class);
+  private final PlainRanker model;
+  private final ExecutorService executor;
+  private final int probes;
+  private final long seed;
+  private final MultigridSolver solver = new MultigridSolver();
+
+  /**
+   * @param model ranking model used to calculate the relative skill of each pairing
+   * @param executor runs the probes, not shut down here
+   * @param probes number of probe solves, each costing about as much as solving the ratings
+   * @param seed seed of the probes, so that estimates can be repeated
+   */
+  public RatingUncertainty(PlainRanker model, ExecutorService executor, int probes, long seed) {
+    if(probes < 1) {
+      throw new IllegalArgumentException("At least one probe is needed, got " + probes);
+    }
+    this.model = model;
+    this.executor = executor;
+    this.probes = probes;
+    this.seed = seed;
+  }
+
+  public Estimate estimate(Collection<Match> matches) throws InterruptedException {
+    return estimate(MatchUtils.getPairings(matches));
+  }
+
+  public Estimate estimate(List<Pairing> pairings) throws InterruptedException {
+    long start = System.nanoTime();
+    final PairingGroups groups = new PairingGroups(pairings);
+    double[] skill = new double[pairings.size()];
+    for(int p = 0; p < skill.length; p++) {
+      skill[p] = model.calculateRelativeSkill(pairings.get(p));
+    }
+    double[] ratings = groups.solve(skill, solver);
+    // the residual variance of the fit, with one rating per team fitted less one per group for the group's average
+    double squaredResiduals = 0;
+    for(int group = 0; group < groups.getGroupCount(); group++) {
+      int[] groupTeams = groups.getGroupTeams(group);
+      int[] groupPairings = groups.getGroupPairings(group);
+      int[][] pairingTeams = groups.getGroupPairingTeams(group);
+      for(int i = 0; i < groupPairings.length; i++) {
+        double residual = ratings[groupTeams[pairingTeams[0][i]]] - ratings[groupTeams[pairingTeams[1][i]]] - skill[groupPairings[i]];
+        squaredResiduals += residual * residual;
+      }
+    }
+    int freedom = pairings.size() - groups.getTeams().size() + groups.getGroupCount();
+    double residualVariance = freedom > 0 ? squaredResiduals / freedom : Double.NaN;
+    List<Callable<double[]>> tasks = new ArrayList<>(probes);
+    for(int probe = 0; probe < probes; probe++) {
+      final Random random = new Random(seed + probe);
+      tasks.add(new Callable<double[]>() {
+        @Override
+        public double[] call() {
+          return probe(groups, random);
+        }
+      });
+    }
+    double[] diagonal = new double[groups.getTeams().size()];
+    for(Future<double[]> future : executor.invokeAll(tasks)) {
+      try {
+        double[] estimate = future.get();
+        for(int team = 0; team < diagonal.length; team++) {
+          diagonal[team] += estimate[team] / probes;
+        }
+      } catch(ExecutionException e) {
+        throw new RuntimeException("Unable to estimate rating uncertainty", e.getCause());
+      }
+    }
+    Map<String, Double> ratingMap = new HashMap<>();
+    Map<String, Double> standardErrors = new HashMap<>();
+    for(int team = 0; team < diagonal.length; team++) {
+      String name = groups.getTeams().get(team);
+      ratingMap.put(name, ratings[team]);
+      // a handful of probes can leave a small diagonal slightly negative
+      standardErrors.put(name, sqrt(residualVariance * Math.max(0, diagonal[team])));
+    }
+    log.info("Estimated uncertainty of {} teams with {} probes and residual variance {} in {}ms", diagonal.length, probes, residualVariance, (System.nanoTime() - start) / 1000000);
+    return new Estimate(ratingMap, standardErrors, residualVariance);
+  }
+
+  /**
+   * One Hutchinson probe: z * (L<sup>+</sup> z) for a random z of +1s and -1s, whose expectation is the diagonal of
+   * L<sup>+</sup>.
+   */
+  private double[] probe(PairingGroups groups, Random random) {
+    double[] result = new double[groups.getTeams().size()];
+    for(int group = 0; group < groups.getGroupCount(); group++) {
+      int[] groupTeams = groups.getGroupTeams(group);
+      int[][] pairingTeams = groups.getGroupPairingTeams(group);
+      double[] z = new double[groupTeams.length];
+      double mean = 0;
+      for(int i = 0; i < z.length; i++) {
+        z[i] = random.nextBoolean() ? 1 : -1;
+        mean += z[i];
+      }
+      mean /= z.length;
+      // L+ ignores the constant part of z, which must be removed for the system to be solvable
+      double[] rhs = new double[z.length];
+      for(int i = 0; i < z.length; i++) {
+        rhs[i] = z[i] - mean;
+      }
+      double[] x = new double[z.length];
+      solver.solveLaplacian(pairingTeams[0], pairingTeams[1], rhs, x, 0, Long.MAX_VALUE);
+      for(int i = 0; i < z.length; i++) {
+        result[groupTeams[i]] = z[i] * x[i];
+      }
+    }
+    return result;
+  }
+
+  public static class Estimate {
+    private final Map<String, Double> ratings;
+    private final Map<String, Double> standardErrors;
+    private final double residualVariance;
+
+    private Estimate(Map<String, Double> ratings, Map<String, Double> standardErrors, double residualVariance) {
+      this.ratings = ratings;
+      this.standardErrors = standardErrors;
+      this.residualVariance = residualVariance;
+    }
+
+    public double getRating(String team) {
+      Double rating = ratings.get(team);
+      if(rating == null) {
+        throw new RuntimeException("Unable to find team " + team + " in any of the " + ratings.size() + " estimated teams");
+      }
+      return rating;
+    }
+
+    public double getStandardError(String team) {
+      getRating(team);
+      return standardErrors.get(team);
+    }
+
+    /**
+     * @return variance of the pairings' relative skills about the fitted ratings, NaN if the ratings fit exactly
+     * because there are no more pairings than ratings
+     */
+    public double getResidualVariance() {
+      return residualVariance;
+    }
+  }
+}
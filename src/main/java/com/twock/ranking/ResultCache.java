@@ -0,0 +1,258 @@
+package com.twock.ranking;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores solved ratings on disk keyed by a hash of the pairing aggregates and model they were solved from, so that a
+ * match group that has been solved before, in this process or an earlier one, can be loaded rather than re-solved.
+ * When the files exceed the size limit the least recently used are deleted.
+ * <p/>
+ * Only the bookkeeping of which entries exist is done under the lock, and every file is read, written and deleted
+ * outside it, so that threads solving different groups do not wait on each other's disk access.  Entries are written
+ * to a temporary file and renamed into place atomically, so a reader sees either the old or the new ratings in full.
+ * An entry whose file has gone by the time it is read, e.g. evicted by another thread, is treated as a miss.
+ *
+ * @author Chris Pearson
+ */
+public class ResultCache {
+  private static final Logger log = LoggerFactory.getLogger(ResultCache.class);
+  private static final String SUFFIX = ".ratings";
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  private final Path directory;
+  private final long maxBytes;
+  // file size of each entry, least recently used first
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalBytes;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * @param directory directory to keep the results in, created if necessary, and reloaded from if it already exists
+   * @param maxBytes largest total size of the results to keep
+   */
+  public ResultCache(Path directory, long maxBytes) throws IOException {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    Files.createDirectories(directory);
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for(Path file : stream) {
+        files.add(file);
+      }
+    }
+    final Map<Path, FileTime> lastUsed = new HashMap<>();
+    for(Path file : files) {
+      lastUsed.put(file, Files.getLastModifiedTime(file));
+    }
+    Collections.sort(files, new Comparator<Path>() {
+      @Override
+      public int compare(Path o1, Path o2) {
+        return lastUsed.get(o1).compareTo(lastUsed.get(o2));
+      }
+    });
+    for(Path file : files) {
+      String name = file.getFileName().toString();
+      long size = Files.size(file);
+      entries.put(name.substring(0, name.length() - SUFFIX.length()), size);
+      totalBytes += size;
+    }
+    log.info("Loaded {} cached results totalling {} bytes from {}", entries.size(), totalBytes, directory);
+    deleteAll(evict());
+  }
+
+  /**
+   * @param model identifies how the ratings are calculated from the pairings, e.g. the ranker class
+   * @param pairings every pairing of a match group, in any order
+   * @return the hex SHA-256 of the model and the pairings sorted by team
+   */
+  public static String getKey(String model, List<Pairing> pairings) {
+    List<Pairing> sorted = new ArrayList<>(pairings);
+    Collections.sort(sorted, new Comparator<Pairing>() {
+      @Override
+      public int compare(Pairing o1, Pairing o2) {
+        int result = o1.getTeam1().compareTo(o2.getTeam1());
+        return result != 0 ? result : o1.getTeam2().compareTo(o2.getTeam2());
+      }
+    });
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+      }, digest))) {
+        out.writeUTF(model);
+        out.writeInt(sorted.size());
+        for(Pairing pairing : sorted) {
+          out.writeUTF(pairing.getTeam1());
+          out.writeUTF(pairing.getTeam2());
+          out.writeInt(pairing.getTeam1Total());
+          out.writeInt(pairing.getTeam2Total());
+          out.writeInt(pairing.getMatchCount());
+        }
+      }
+      byte[] hash = digest.digest();
+      char[] result = new char[hash.length * 2];
+      for(int i = 0; i < hash.length; i++) {
+        result[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+        result[i * 2 + 1] = HEX[hash[i] & 0xf];
+      }
+      return new String(result);
+    } catch(NoSuchAlgorithmException | IOException e) {
+      throw new RuntimeException("Unable to hash " + pairings.size() + " pairings", e);
+    }
+  }
+
+  /**
+   * @return the ratings stored under the key, or null if there are none
+   */
+  public Map<String, Double> get(String key) {
+    synchronized(this) {
+      // looking the entry up marks it as the most recently used
+      if(entries.get(key) == null) {
+        misses++;
+        return null;
+      }
+    }
+    Path file = getFile(key);
+    Map<String, Double> result = new HashMap<>();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      int count = in.readInt();
+      for(int i = 0; i < count; i++) {
+        result.put(in.readUTF(), in.readDouble());
+      }
+      // the modified time records when the entry was last used, so that eviction order survives a restart
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch(IOException e) {
+      log.warn("Discarding unreadable cached result {}: {}", file, e.toString());
+      synchronized(this) {
+        Long size = entries.remove(key);
+        if(size != null) {
+          totalBytes -= size;
+        }
+        misses++;
+      }
+      delete(file);
+      return null;
+    }
+    synchronized(this) {
+      hits++;
+    }
+    return result;
+  }
+
+  /**
+   * Store the ratings under the key, evicting the least recently used results if the cache is then too big.  Failing to
+   * write is logged rather than thrown, as the ratings can always be solved again.
+   */
+  public void put(String key, Map<String, Double> ratings) {
+    Path file = getFile(key);
+    long size;
+    Path temp = null;
+    try {
+      temp = Files.createTempFile(directory, key, ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        out.writeInt(ratings.size());
+        for(Map.Entry<String, Double> entry : ratings.entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeDouble(entry.getValue());
+        }
+      }
+      size = Files.size(temp);
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      temp = null;
+    } catch(IOException e) {
+      log.warn("Unable to cache result {}: {}", file, e.toString());
+      return;
+    } finally {
+      if(temp != null) {
+        delete(temp);
+      }
+    }
+    List<String> evicted;
+    synchronized(this) {
+      Long previousSize = entries.put(key, size);
+      totalBytes += size - (previousSize == null ? 0 : previousSize);
+      evicted = evict();
+    }
+    deleteAll(evicted);
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  public synchronized long getSizeBytes() {
+    return totalBytes;
+  }
+
+  /**
+   * Drop the least recently used entries until the cache fits, must be called holding the lock.
+   *
+   * @return the keys dropped, whose files are to be deleted once the lock is released
+   */
+  private List<String> evict() {
+    List<String> evicted = new ArrayList<>();
+    Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+    while(totalBytes > maxBytes && iterator.hasNext()) {
+      Map.Entry<String, Long> eldest = iterator.next();
+      iterator.remove();
+      totalBytes -= eldest.getValue();
+      evictions++;
+      evicted.add(eldest.getKey());
+    }
+    return evicted;
+  }
+
+  private void deleteAll(List<String> keys) {
+    for(String key : keys) {
+      delete(getFile(key));
+    }
+  }
+
+  private static void delete(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch(IOException e) {
+      log.warn("Unable to delete cached result {}: {}", file, e.toString());
+    }
+  }
+
+  private Path getFile(String key) {
+    return directory.resolve(key + SUFFIX);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "ResultCache{" +
+      "directory=" + directory +
+      ", entries=" + entries.size() +
+      ", bytes=" + totalBytes +
+      ", hits=" + hits +
+      ", misses=" + misses +
+      ", evictions=" + evictions +
+      '}';
+  }
+}
@@ -0,0 +1,97 @@
+package com.twock.ranking;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The ratings of one shard of teams to be solved by a RankWorker: the pairings between its teams, plus anchors for
+ * pairings with teams outside the shard whose ratings are held fixed.
+ *
+ * @author Chris Pearson
+ */
+class ShardJob {
+  /**
+   * Coordinator's index of each team in the shard, not sent to the worker.
+   */
+  final int[] teams;
+  final int[] team1;
+  final int[] team2;
+  final double[] skill;
+  final int[] anchorTeams;
+  final double[] anchorRatings;
+  final double[] ratings;
+  double stepSize;
+
+  ShardJob(int[] teams, int[] team1, int[] team2, double[] skill, int[] anchorTeams, double[] anchorRatings, double[] ratings) {
+    this.teams = teams;
+    this.team1 = team1;
+    this.team2 = team2;
+    this.skill = skill;
+    this.anchorTeams = anchorTeams;
+    this.anchorRatings = anchorRatings;
+    this.ratings = ratings;
+  }
+
+  void solve() {
+    stepSize = new MultigridSolver().solve(team1, team2, skill, anchorTeams, anchorRatings, ratings, 0, Long.MAX_VALUE);
+  }
+
+  void writeRequest(DataOutputStream out) throws IOException {
+    out.writeInt(ratings.length);
+    for(double rating : ratings) {
+      out.writeDouble(rating);
+    }
+    out.writeInt(team1.length);
+    for(int i = 0; i < team1.length; i++) {
+      out.writeInt(team1[i]);
+      out.writeInt(team2[i]);
+      out.writeDouble(skill[i]);
+    }
+    out.writeInt(anchorTeams.length);
+    for(int i = 0; i < anchorTeams.length; i++) {
+      out.writeInt(anchorTeams[i]);
+      out.writeDouble(anchorRatings[i]);
+    }
+    out.flush();
+  }
+
+  static ShardJob readRequest(DataInputStream in) throws IOException {
+    double[] ratings = new double[in.readInt()];
+    for(int i = 0; i < ratings.length; i++) {
+      ratings[i] = in.readDouble();
+    }
+    int pairingCount = in.readInt();
+    int[] team1 = new int[pairingCount];
+    int[] team2 = new int[pairingCount];
+    double[] skill = new double[pairingCount];
+    for(int i = 0; i < pairingCount; i++) {
+      team1[i] = in.readInt();
+      team2[i] = in.readInt();
+      skill[i] = in.readDouble();
+    }
+    int anchorCount = in.readInt();
+    int[] anchorTeams = new int[anchorCount];
+    double[] anchorRatings = new double[anchorCount];
+    for(int i = 0; i < anchorCount; i++) {
+      anchorTeams[i] = in.readInt();
+      anchorRatings[i] = in.readDouble();
+    }
+    return new ShardJob(null, team1, team2, skill, anchorTeams, anchorRatings, ratings);
+  }
+
+  void writeResponse(DataOutputStream out) throws IOException {
+    out.writeDouble(stepSize);
+    for(double rating : ratings) {
+      out.writeDouble(rating);
+    }
+    out.flush();
+  }
+
+  void readResponse(DataInputStream in) throws IOException {
+    stepSize = in.readDouble();
+    for(int i = 0; i < ratings.length; i++) {
+      ratings[i] = in.readDouble();
+    }
+  }
+}
@@ -0,0 +1,534 @@
+package com.twock.ranking;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+
+/**
+ * Coordinates solving a ranking across RankWorker processes.  Only pairing aggregates are kept here; independent match
+ * groups are bundled into shards of up to maxShardTeams teams, and groups larger than that are split into several
+ * shards solved in turn, each time holding the ratings of the other shards fixed, with a coarse correction between
+ * rounds, until the ratings stop changing.
+ * A shard whose worker fails is retried on another worker, up to MAX_SHARD_ATTEMPTS times in all, and the failed
+ * worker is only offered shards again once RECONNECT_DELAY_MILLIS has passed, so that a restarted worker is used again.
+ *
+ * @author Chris Pearson
+ */
+public class ShardedRanker implements Ranker {
+  private static final Logger log = LoggerFactory.getLogger(ShardedRanker.class);
+  private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+  private static final int READ_TIMEOUT_MILLIS = 600000;
+  private static final double SPLIT_TOLERANCE = 1e-9;
+  private static final int MAX_SPLIT_ROUNDS = 100;
+  private static final int AGGREGATES_PER_SHARD = 4;
+  private static final int MAX_SHARD_ATTEMPTS = 3;
+  private static final long RECONNECT_DELAY_MILLIS = 1000;
+  private final PlainRanker model;
+  private final int maxShardTeams;
+  private final BlockingQueue<InetSocketAddress> idleWorkers = new LinkedBlockingQueue<>();
+  private final ExecutorService executor;
+  private final ScheduledExecutorService reconnector = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "shard-reconnector");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+  private final Map<String, Pairing> pairings = new LinkedHashMap<>();
+  private final Map<String, Integer> gamesPlayed = new HashMap<>();
+  private Map<String, Double> ratings = new HashMap<>();
+  private boolean changed;
+
+  /**
+   * @param model ranking model used to calculate the relative skill of each pairing
+   * @param workers addresses of the RankWorkers to use
+   * @param maxShardTeams most teams to send to a worker at once
+   */
+  public ShardedRanker(PlainRanker model, List<InetSocketAddress> workers, int maxShardTeams) {
+    this.model = model;
+    this.maxShardTeams = maxShardTeams;
+    idleWorkers.addAll(workers);
+    executor = Executors.newFixedThreadPool(workers.size());
+  }
+
+  @Override
+  public void addMatch(LocalDate date, String team1, String team2, int score1, int score2) {
+    Match match = new Match(date, team1, team2, score1, score2);
+    String key = match.getTeam1() + '\u0000' + match.getTeam2();
+    Pairing pairing = pairings.get(key);
+    if(pairing == null) {
+      pairing = new Pairing(match.getTeam1(), match.getTeam2());
+      pairings.put(key, pairing);
+    }
+    pairing.add(match);
+    incrementGamesPlayed(match.getTeam1(), 1);
+    incrementGamesPlayed(match.getTeam2(), 1);
+    changed = true;
+  }
+
+  /**
+   * Only the pairing aggregates are kept here, so a match is matched by its teams and scores alone, not its date.
+   */
+  @Override
+  public boolean removeMatch(LocalDate date, String team1, String team2, int score1, int score2) {
+    Match match = new Match(date, team1, team2, score1, score2);
+    String key = match.getTeam1() + '\u0000' + match.getTeam2();
+    Pairing pairing = pairings.get(key);
+    if(pairing == null || !pairing.remove(match.getTeam1Score(), match.getTeam2Score())) {
+      return false;
+    }
+    if(pairing.getMatchCount() == 0) {
+      pairings.remove(key);
+    }
+    incrementGamesPlayed(match.getTeam1(), -1);
+    incrementGamesPlayed(match.getTeam2(), -1);
+    changed = true;
+    return true;
+  }
+
+  @Override
+  public boolean updateMatch(LocalDate date, String team1, String team2, int score1, int score2, int correctedScore1, int correctedScore2) {
+    if(!removeMatch(date, team1, team2, score1, score2)) {
+      return false;
+    }
+    addMatch(date, team1, team2, correctedScore1, correctedScore2);
+    return true;
+  }
+
+  private void incrementGamesPlayed(String team, int increment) {
+    Integer played = gamesPlayed.get(team);
+    int result = (played == null ? 0 : played) + increment;
+    if(result == 0) {
+      gamesPlayed.remove(team);
+    } else {
+      gamesPlayed.put(team, result);
+    }
+  }
+
+  @Override
+  public int getGamesPlayed(String team) {
+    Integer played = gamesPlayed.get(team);
+    return played == null ? 0 : played;
+  }
+
+  @Override
+  public double getRanking(String team) {
+    if(changed) {
+      solve();
+      changed = false;
+    }
+    Double rating = ratings.get(team);
+    if(rating == null) {
+      throw new RuntimeException("Unable to find team " + team + " in any of the " + ratings.size() + " ranked teams");
+    }
+    return rating;
+  }
+
+  @Override
+  public List<String> getTeams() {
+    List<String> teams = new ArrayList<>(gamesPlayed.keySet());
+    Collections.sort(teams);
+    return teams;
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+    reconnector.shutdownNow();
+  }
+
+  private void solve() {
+    List<String> teams = getTeams();
+    Map<String, Integer> teamIndexes = new HashMap<>();
+    for(int i = 0; i < teams.size(); i++) {
+      teamIndexes.put(teams.get(i), i);
+    }
+    int[] team1 = new int[pairings.size()];
+    int[] team2 = new int[pairings.size()];
+    double[] skill = new double[pairings.size()];
+    int[] parents = new int[teams.size()];
+    for(int i = 0; i < parents.length; i++) {
+      parents[i] = i;
+    }
+    int p = 0;
+    for(Pairing pairing : pairings.values()) {
+      team1[p] = teamIndexes.get(pairing.getTeam1());
+      team2[p] = teamIndexes.get(pairing.getTeam2());
+      skill[p] = model.calculateRelativeSkill(pairing);
+      parents[find(parents, team1[p])] = find(parents, team2[p]);
+      p++;
+    }
+    double[] solution = new double[teams.size()];
+    for(int i = 0; i < teams.size(); i++) {
+      Double previous = ratings.get(teams.get(i));
+      solution[i] = previous == null ? INITIAL_RANKING : previous;
+    }
+    // list the teams of each group, largest first
+    Map<Integer, List<Integer>> groupTeams = new HashMap<>();
+    for(int team = 0; team < teams.size(); team++) {
+      int root = find(parents, team);
+      List<Integer> members = groupTeams.get(root);
+      if(members == null) {
+        members = new ArrayList<>();
+        groupTeams.put(root, members);
+      }
+      members.add(team);
+    }
+    List<List<Integer>> groups = new ArrayList<>(groupTeams.values());
+    Collections.sort(groups, new Comparator<List<Integer>>() {
+      @Override
+      public int compare(List<Integer> o1, List<Integer> o2) {
+        return Integer.compare(o2.size(), o1.size());
+      }
+    });
+    int[][] adjacency = buildAdjacency(teams.size(), team1, team2);
+    List<int[]> bundle = new ArrayList<>();
+    List<int[]> bundles = new ArrayList<>();
+    int bundleTeams = 0;
+    for(List<Integer> group : groups) {
+      if(group.size() > maxShardTeams) {
+        solveSplit(group, adjacency, team1, team2, skill, solution);
+        continue;
+      }
+      if(bundleTeams + group.size() > maxShardTeams) {
+        bundles.add(flatten(bundle));
+        bundle.clear();
+        bundleTeams = 0;
+      }
+      bundle.add(toArray(group));
+      bundleTeams += group.size();
+    }
+    if(!bundle.isEmpty()) {
+      bundles.add(flatten(bundle));
+    }
+    List<ShardJob> jobs = new ArrayList<>();
+    for(int[] shard : bundles) {
+      jobs.add(createJob(shard, adjacency, team1, team2, skill, solution));
+    }
+    dispatch(jobs);
+    for(ShardJob job : jobs) {
+      for(int i = 0; i < job.teams.length; i++) {
+        solution[job.teams[i]] = job.ratings[i];
+      }
+    }
+    // bundled groups were only centred together, so scale each group to average around 50
+    Map<String, Double> result = new HashMap<>();
+    for(List<Integer> group : groups) {
+      double total = 0;
+      for(int team : group) {
+        total += solution[team];
+      }
+      double increment = INITIAL_RANKING - total / group.size();
+      for(int team : group) {
+        result.put(teams.get(team), solution[team] + increment);
+      }
+    }
+    ratings = result;
+    log.info("Solved {} teams in {} groups with {} shards", teams.size(), groups.size(), jobs.size());
+  }
+
+  /**
+   * Solve a group too large for one worker by splitting it into runs of teams in breadth first order.  The shards are
+   * coloured so that no two shards of the same colour have played each other; each round solves every shard of one
+   * colour at a time in parallel, with the latest ratings of the other shards fixed, until the ratings stop changing.
+   * <p/>
+   * Solving shards one at a time only passes a change in one shard's ratings on to its neighbours each round, so a
+   * long chain of weakly connected shards would take many rounds to settle.  After each round the teams are therefore
+   * moved in aggregates, runs of AGGREGATES_PER_SHARD to a shard in the same breadth first order, each by the offset
+   * that best fits the pairings between aggregates, solved here as a ranking of the aggregates themselves.  As with
+   * the MultigridSolver's coarse levels, this moves whole regions into place at once.  If the ratings still have not
+   * settled after MAX_SPLIT_ROUNDS rounds the closest ratings found are used, and a warning is logged.
+   */
+  private void solveSplit(List<Integer> group, int[][] adjacency, int[] team1, int[] team2, double[] skill, double[] solution) {
+    int[] order = breadthFirst(group.get(0), adjacency, team1, team2, group.size());
+    List<int[]> shards = new ArrayList<>();
+    Map<Integer, Integer> shardOfTeam = new HashMap<>();
+    for(int start = 0; start < order.length; start += maxShardTeams) {
+      int[] shard = Arrays.copyOfRange(order, start, Math.min(order.length, start + maxShardTeams));
+      for(int team : shard) {
+        shardOfTeam.put(team, shards.size());
+      }
+      shards.add(shard);
+    }
+    List<List<int[]>> colours = colourShards(shards, shardOfTeam, adjacency, team1, team2);
+    int aggregateTeams = max(1, maxShardTeams / AGGREGATES_PER_SHARD);
+    int aggregateCount = (order.length + aggregateTeams - 1) / aggregateTeams;
+    Map<Integer, Integer> aggregateOfTeam = new HashMap<>();
+    for(int i = 0; i < order.length; i++) {
+      aggregateOfTeam.put(order[i], i / aggregateTeams);
+    }
+    List<Integer> crossPairings = new ArrayList<>();
+    for(int team : group) {
+      for(int pairing : adjacency[team]) {
+        if(team1[pairing] == team && !aggregateOfTeam.get(team1[pairing]).equals(aggregateOfTeam.get(team2[pairing]))) {
+          crossPairings.add(pairing);
+        }
+      }
+    }
+    for(int round = 1; round <= MAX_SPLIT_ROUNDS; round++) {
+      double biggestChange = 0;
+      for(List<int[]> colour : colours) {
+        List<ShardJob> jobs = new ArrayList<>();
+        for(int[] shard : colour) {
+          jobs.add(createJob(shard, adjacency, team1, team2, skill, solution));
+        }
+        dispatch(jobs);
+        for(ShardJob job : jobs) {
+          for(int i = 0; i < job.teams.length; i++) {
+            biggestChange = max(biggestChange, abs(solution[job.teams[i]] - job.ratings[i]));
+            solution[job.teams[i]] = job.ratings[i];
+          }
+        }
+      }
+      double[] offsets = solveAggregateOffsets(aggregateCount, aggregateOfTeam, crossPairings, team1, team2, skill, solution);
+      for(int team : group) {
+        double offset = offsets[aggregateOfTeam.get(team)];
+        biggestChange = max(biggestChange, abs(offset));
+        solution[team] += offset;
+      }
+      if(biggestChange < SPLIT_TOLERANCE) {
+        log.debug("Split group of {} teams into {} shards of {} colours, converged after {} rounds", group.size(), shards.size(), colours.size(), round);
+        return;
+      }
+    }
+    log.warn("Split group of {} teams into {} shards did not converge in {} rounds", group.size(), shards.size(), MAX_SPLIT_ROUNDS);
+  }
+
+  /**
+   * Only the pairings between aggregates depend on the aggregates' offsets, each fitting best when the offsets differ
+   * by the part of its skill the current ratings leave unexplained, so the offsets are the ratings of the aggregates
+   * ranked on those residuals alone.
+   *
+   * @return the amount to add to the ratings of each aggregate, averaging zero
+   */
+  private static double[] solveAggregateOffsets(int aggregateCount, Map<Integer, Integer> aggregateOfTeam, List<Integer> crossPairings, int[] team1, int[] team2, double[] skill, double[] solution) {
+    int[] aggregate1 = new int[crossPairings.size()];
+    int[] aggregate2 = new int[crossPairings.size()];
+    double[] residual = new double[crossPairings.size()];
+    for(int i = 0; i < crossPairings.size(); i++) {
+      int pairing = crossPairings.get(i);
+      aggregate1[i] = aggregateOfTeam.get(team1[pairing]);
+      aggregate2[i] = aggregateOfTeam.get(team2[pairing]);
+      residual[i] = skill[pairing] - (solution[team1[pairing]] - solution[team2[pairing]]);
+    }
+    double[] offsets = new double[aggregateCount];
+    new MultigridSolver().solve(aggregate1, aggregate2, residual, offsets, 0, Long.MAX_VALUE);
+    // the solver centres the offsets around 50 rather than 0
+    for(int aggregate = 0; aggregate < aggregateCount; aggregate++) {
+      offsets[aggregate] -= INITIAL_RANKING;
+    }
+    return offsets;
+  }
+
+  /**
+   * Greedily colour the shards so that shards with pairings between them have different colours.
+   */
+  private static List<List<int[]>> colourShards(List<int[]> shards, Map<Integer, Integer> shardOfTeam, int[][] adjacency, int[] team1, int[] team2) {
+    int[] shardColours = new int[shards.size()];
+    List<List<int[]>> colours = new ArrayList<>();
+    for(int shard = 0; shard < shards.size(); shard++) {
+      Set<Integer> neighbourColours = new HashSet<>();
+      for(int team : shards.get(shard)) {
+        for(int pairing : adjacency[team]) {
+          int otherShard = shardOfTeam.get(team1[pairing] == team ? team2[pairing] : team1[pairing]);
+          if(otherShard < shard) {
+            neighbourColours.add(shardColours[otherShard]);
+          }
+        }
+      }
+      int colour = 0;
+      while(neighbourColours.contains(colour)) {
+        colour++;
+      }
+      shardColours[shard] = colour;
+      if(colour == colours.size()) {
+        colours.add(new ArrayList<int[]>());
+      }
+      colours.get(colour).add(shards.get(shard));
+    }
+    return colours;
+  }
+
+  private ShardJob createJob(int[] shard, int[][] adjacency, int[] team1, int[] team2, double[] skill, double[] solution) {
+    Map<Integer, Integer> localIndexes = new HashMap<>();
+    for(int i = 0; i < shard.length; i++) {
+      localIndexes.put(shard[i], i);
+    }
+    List<Integer> pairingList = new ArrayList<>();
+    List<Integer> anchorList = new ArrayList<>();
+    for(int team : shard) {
+      for(int pairing : adjacency[team]) {
+        Integer other = localIndexes.get(team1[pairing] == team ? team2[pairing] : team1[pairing]);
+        if(other == null) {
+          anchorList.add(pairing);
+        } else if(team1[pairing] == team) {
+          // only add pairings within the shard once
+          pairingList.add(pairing);
+        }
+      }
+    }
+    int[] localTeam1 = new int[pairingList.size()];
+    int[] localTeam2 = new int[pairingList.size()];
+    double[] localSkill = new double[pairingList.size()];
+    for(int i = 0; i < pairingList.size(); i++) {
+      int pairing = pairingList.get(i);
+      localTeam1[i] = localIndexes.get(team1[pairing]);
+      localTeam2[i] = localIndexes.get(team2[pairing]);
+      localSkill[i] = skill[pairing];
+    }
+    int[] anchorTeams = new int[anchorList.size()];
+    double[] anchorRatings = new double[anchorList.size()];
+    for(int i = 0; i < anchorList.size(); i++) {
+      int pairing = anchorList.get(i);
+      Integer local = localIndexes.get(team1[pairing]);
+      if(local != null) {
+        // team1 - team2 = skill, so team1 = team2 + skill
+        anchorTeams[i] = local;
+        anchorRatings[i] = solution[team2[pairing]] + skill[pairing];
+      } else {
+        anchorTeams[i] = localIndexes.get(team2[pairing]);
+        anchorRatings[i] = solution[team1[pairing]] - skill[pairing];
+      }
+    }
+    double[] initial = new double[shard.length];
+    for(int i = 0; i < shard.length; i++) {
+      initial[i] = solution[shard[i]];
+    }
+    return new ShardJob(shard, localTeam1, localTeam2, localSkill, anchorTeams, anchorRatings, initial);
+  }
+
+  /**
+   * Run the jobs across the workers, waiting for them all to complete.
+   */
+  private void dispatch(List<ShardJob> jobs) {
+    List<Future<?>> futures = new ArrayList<>();
+    for(final ShardJob job : jobs) {
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws InterruptedException, IOException {
+          solveRemotely(job);
+          return null;
+        }
+      }));
+    }
+    try {
+      for(Future<?> future : futures) {
+        future.get();
+      }
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted waiting for workers", e);
+    } catch(ExecutionException e) {
+      throw new RuntimeException("Failed to solve shard", e.getCause());
+    }
+  }
+
+  private void solveRemotely(ShardJob job) throws InterruptedException, IOException {
+    for(int attempt = 1; ; attempt++) {
+      final InetSocketAddress worker = idleWorkers.take();
+      try (Socket socket = new Socket()) {
+        socket.connect(worker, CONNECT_TIMEOUT_MILLIS);
+        if(socket.getLocalPort() == socket.getPort() && socket.getLocalAddress().equals(socket.getInetAddress())) {
+          // with nothing listening on a local port, a connection can be given that port as its own and connect to itself
+          throw new IOException("Connected to itself, nothing is listening");
+        }
+        socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        job.writeRequest(out);
+        job.readResponse(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+        idleWorkers.add(worker);
+        return;
+      } catch(IOException e) {
+        // the worker sits out a while, so that other shards go to the remaining workers until it may have restarted
+        reconnector.schedule(new Runnable() {
+          @Override
+          public void run() {
+            idleWorkers.add(worker);
+          }
+        }, RECONNECT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        if(attempt >= MAX_SHARD_ATTEMPTS) {
+          throw new IOException("Shard of " + job.teams.length + " teams failed on " + attempt + " attempts, last on " + worker, e);
+        }
+        log.warn("Worker {} failed on attempt {} of shard of {} teams, retrying: {}", worker, attempt, job.teams.length, e.toString());
+      }
+    }
+  }
+
+  private static int find(int[] parents, int team) {
+    while(parents[team] != team) {
+      parents[team] = parents[parents[team]];
+      team = parents[team];
+    }
+    return team;
+  }
+
+  /**
+   * @return the pairings of each team
+   */
+  private static int[][] buildAdjacency(int teamCount, int[] team1, int[] team2) {
+    int[] counts = new int[teamCount];
+    for(int pairing = 0; pairing < team1.length; pairing++) {
+      counts[team1[pairing]]++;
+      counts[team2[pairing]]++;
+    }
+    int[][] result = new int[teamCount][];
+    for(int team = 0; team < teamCount; team++) {
+      result[team] = new int[counts[team]];
+      counts[team] = 0;
+    }
+    for(int pairing = 0; pairing < team1.length; pairing++) {
+      result[team1[pairing]][counts[team1[pairing]]++] = pairing;
+      result[team2[pairing]][counts[team2[pairing]]++] = pairing;
+    }
+    return result;
+  }
+
+  private static int[] breadthFirst(int start, int[][] adjacency, int[] team1, int[] team2, int size) {
+    int[] order = new int[size];
+    Set<Integer> visited = new HashSet<>();
+    visited.add(start);
+    order[0] = start;
+    int tail = 1;
+    for(int head = 0; head < tail; head++) {
+      int team = order[head];
+      for(int pairing : adjacency[team]) {
+        int other = team1[pairing] == team ? team2[pairing] : team1[pairing];
+        if(visited.add(other)) {
+          order[tail++] = other;
+        }
+      }
+    }
+    return order;
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    int[] result = new int[list.size()];
+    for(int i = 0; i < result.length; i++) {
+      result[i] = list.get(i);
+    }
+    return result;
+  }
+
+  private static int[] flatten(List<int[]> arrays) {
+    int length = 0;
+    for(int[] array : arrays) {
+      length += array.length;
+    }
+    int[] result = new int[length];
+    int offset = 0;
+    for(int[] array : arrays) {
+      System.arraycopy(array, 0, result, offset, array.length);
+      offset += array.length;
+    }
+    return result;
+  }
+}
@@ -1,7 +1,5 @@
 package com.twock.ranking;
 
-import java.util.List;
-
 import static java.lang.Math.*;
 
 /**
@@ -12,8 +10,8 @@ import static java.lang.Math.*;
  */
 public class WeightedGoalDifferenceRanker extends PlainRanker {
   @Override
-  public double calculateRelativeSkill(List<Match> matches) {
-    double parent = super.calculateRelativeSkill(matches);
+  public double calculateRelativeSkill(int team1Total, int team2Total, int matchCount) {
+    double parent = super.calculateRelativeSkill(team1Total, team2Total, matchCount);
     return abs(parent) < 5 ? parent : parent + signum(parent) * 10 / Math.pow(2, 10 - abs(parent));
   }
 }
@@ -1,7 +1,5 @@
 package com.twock.ranking;
 
-import java.util.List;
-
 import static java.lang.Math.*;
 
 /**
@@ -17,8 +15,12 @@ import static java.lang.Math.*;
  */
 public class WinBonusRanker extends PlainRanker {
   @Override
-  public double calculateRelativeSkill(List<Match> matches) {
-    double parent = super.calculateRelativeSkill(matches);
+  public double calculateRelativeSkill(int team1Total, int team2Total, int matchCount) {
+    double parent = super.calculateRelativeSkill(team1Total, team2Total, matchCount);
+    if(parent == 0) {
+      // a draw earns no bonus, and would otherwise divide by zero
+      return 0;
+    }
     double sign = signum(parent);
     return parent + sign * 20d / 9d * (1d - 1d / abs(parent));
   }
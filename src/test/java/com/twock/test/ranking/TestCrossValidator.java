@@ -0,0 +1,134 @@
+package com.twock.test.ranking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.twock.ranking.CrossValidator;
+import com.twock.ranking.Match;
+import com.twock.ranking.PlainRanker;
+import com.twock.ranking.RankerModel;
+import org.joda.time.LocalDate;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Chris Pearson
+ */
+public class TestCrossValidator {
+  private static final LocalDate START = new LocalDate(2014, 1, 1);
+  private ExecutorService executor;
+  private List<Match> matches;
+
+  @BeforeClass
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+    // teams of increasing strength, with results scattered around the difference in strength
+    Random random = new Random(7);
+    matches = new ArrayList<>();
+    for(int i = 0; i < 400; i++) {
+      int team1 = random.nextInt(20);
+      int team2 = random.nextInt(19);
+      if(team2 >= team1) {
+        team2++;
+      }
+      int difference = Math.max(-10, Math.min(10, (team1 - team2) / 2 + random.nextInt(5) - 2));
+      matches.add(new Match(START.plusDays(i / 10), "T" + team1, "T" + team2, difference > 0 ? 10 : 10 + difference, difference > 0 ? 10 - difference : 10));
+    }
+  }
+
+  @AfterClass
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testKFoldScoresEveryModel() throws InterruptedException {
+    List<RankerModel> models = Arrays.asList(RankerModel.values());
+    List<CrossValidator.ModelScore> scores = new CrossValidator(matches, executor).kFold(5, 1, models);
+
+    assertEquals(scores.size(), models.size());
+    for(int i = 0; i < models.size(); i++) {
+      CrossValidator.ModelScore score = scores.get(i);
+      assertEquals(score.getModel(), models.get(i));
+      assertEquals(score.getPredicted() + score.getSkipped(), matches.size());
+      assertTrue(score.getRootMeanSquaredError() >= score.getMeanAbsoluteError());
+      // far better than predicting a draw every time
+      assertTrue(score.getMeanAbsoluteError() < 2.5, score.toString());
+      assertTrue(score.getWinnerAccuracy() > 0.7, score.toString());
+    }
+  }
+
+  @Test
+  public void testByDateMatchesRanker() throws InterruptedException {
+    for(RankerModel model : RankerModel.values()) {
+      assertByDateMatchesRanker(model);
+    }
+  }
+
+  @Test
+  public void testErrorsInGoals() throws InterruptedException {
+    // every model fits a single result exactly, so predicts the same goal difference again with no error
+    List<Match> repeated = Arrays.asList(new Match(START, "A", "B", 10, 4), new Match(START.plusDays(1), "A", "B", 10, 4), new Match(START.plusDays(1), "B", "A", 10, 3));
+    List<CrossValidator.ModelScore> scores = new CrossValidator(repeated, executor).byDate(START.plusDays(1), Arrays.asList(RankerModel.values()));
+    for(CrossValidator.ModelScore score : scores) {
+      assertEquals(score.getPredicted(), 2, score.toString());
+      // 13 goals off the reversed result for every model, however far apart its own units would put it
+      assertEquals(score.getMeanAbsoluteError(), 6.5, 1e-9, score.toString());
+      assertEquals(score.getRootMeanSquaredError(), Math.sqrt((0 * 0 + 13 * 13) / 2.0), 1e-9, score.toString());
+      assertEquals(score.getWinnerAccuracy(), 0.5, 1e-9, score.toString());
+    }
+  }
+
+  private void assertByDateMatchesRanker(RankerModel model) throws InterruptedException {
+    LocalDate cutoff = START.plusDays(30);
+    CrossValidator.ModelScore score = new CrossValidator(matches, executor).byDate(cutoff, Arrays.asList(model)).get(0);
+
+    PlainRanker ranker = model.create();
+    List<Match> heldOut = new ArrayList<>();
+    for(Match match : matches) {
+      if(match.getDate().isBefore(cutoff)) {
+        ranker.addMatch(match.getDate(), match.getTeam1(), match.getTeam2(), match.getTeam1Score(), match.getTeam2Score());
+      } else {
+        heldOut.add(match);
+      }
+    }
+    double absoluteError = 0;
+    int correctWinners = 0;
+    int decided = 0;
+    for(Match match : heldOut) {
+      double predicted = toGoals(ranker, ranker.getRanking(match.getTeam1()) - ranker.getRanking(match.getTeam2()));
+      // scored in goals, whatever the model's own units
+      absoluteError += Math.abs(predicted - (match.getTeam1Score() - match.getTeam2Score()));
+      int goalDifference = match.getTeam1Score() - match.getTeam2Score();
+      if(goalDifference != 0) {
+        decided++;
+        correctWinners += Math.signum(predicted) == Math.signum(goalDifference) ? 1 : 0;
+      }
+    }
+    assertEquals(score.getPredicted(), heldOut.size(), model.name());
+    assertEquals(score.getMeanAbsoluteError(), absoluteError / heldOut.size(), 1e-3, model.name());
+    assertEquals(score.getWinnerAccuracy(), (double)correctWinners / decided, 1e-9, model.name());
+  }
+
+  /**
+   * Interpolate the model's skill for whole goal differences up to the 10 goals of the test matches.
+   */
+  private static double toGoals(PlainRanker ranker, double skill) {
+    int goals = -10;
+    while(goals < 9 && skill > skill(ranker, goals + 1)) {
+      goals++;
+    }
+    return goals + (skill - skill(ranker, goals)) / (skill(ranker, goals + 1) - skill(ranker, goals));
+  }
+
+  private static double skill(PlainRanker ranker, int goals) {
+    return goals >= 0 ? ranker.calculateRelativeSkill(goals, 0, 1) : ranker.calculateRelativeSkill(0, -goals, 1);
+  }
+}
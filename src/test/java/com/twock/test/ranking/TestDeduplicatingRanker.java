@@ -0,0 +1,103 @@
+package com.twock.test.ranking;
+
+import com.twock.ranking.BloomFilter;
+import com.twock.ranking.DeduplicatingRanker;
+import com.twock.ranking.PlainRanker;
+import org.joda.time.LocalDate;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Chris Pearson
+ */
+public class TestDeduplicatingRanker {
+  private static final LocalDate DATE = new LocalDate(2014, 3, 1);
+
+  @Test
+  public void testRedeliveredMatchesDropped() {
+    PlainRanker plain = new PlainRanker();
+    DeduplicatingRanker ranker = new DeduplicatingRanker(plain, 1000, 0.01);
+    ranker.addMatch(DATE, "A", "B", 10, 2);
+    ranker.addMatch(DATE, "B", "A", 2, 10);
+    ranker.addMatch(DATE.plusDays(1), "A", "B", 10, 2);
+    assertTrue(ranker.addMatch("m1", DATE, "B", "C", 10, 5));
+    assertFalse(ranker.addMatch("m1", DATE, "B", "C", 10, 5));
+    // a separate match with the same result, told apart by its id
+    assertTrue(ranker.addMatch("m2", DATE, "B", "C", 10, 5));
+
+    assertEquals(ranker.getAddedCount(), 4);
+    assertEquals(ranker.getDuplicateCount(), 2);
+    assertEquals(plain.getGamesPlayed("A"), 2);
+    assertEquals(plain.getGamesPlayed("C"), 2);
+  }
+
+  @Test
+  public void testRemovedMatchCanBeAddedAgain() {
+    PlainRanker plain = new PlainRanker();
+    DeduplicatingRanker ranker = new DeduplicatingRanker(plain, 1000, 0.01);
+    ranker.addMatch(DATE, "A", "B", 10, 2);
+    assertTrue(ranker.updateMatch(DATE, "A", "B", 10, 2, 10, 3));
+    ranker.addMatch(DATE, "A", "B", 10, 3);
+    assertEquals(ranker.getDuplicateCount(), 1);
+    assertTrue(ranker.removeMatch(DATE, "A", "B", 10, 3));
+    assertFalse(ranker.removeMatch(DATE, "A", "B", 10, 3));
+    ranker.addMatch(DATE, "A", "B", 10, 3);
+    assertEquals(ranker.getDuplicateCount(), 1);
+    assertEquals(plain.getGamesPlayed("A"), 1);
+    assertEquals(ranker.getRanking("A"), 53.5, 1e-9);
+  }
+
+  @Test
+  public void testStateOnlyChangedByInnerSuccess() {
+    PlainRanker plain = new PlainRanker();
+    DeduplicatingRanker ranker = new DeduplicatingRanker(plain, 1000, 0.000001);
+    ranker.addMatch(DATE, "A", "B", 10, 2);
+    ranker.addMatch(DATE, "B", "C", 10, 5);
+    // the inner ranker has lost the match, so neither removing nor correcting it changes what has been added
+    assertTrue(plain.removeMatch(DATE, "A", "B", 10, 2));
+    assertFalse(ranker.removeMatch(DATE, "A", "B", 10, 2));
+    assertFalse(ranker.updateMatch(DATE, "A", "B", 10, 2, 10, 3));
+    assertEquals(ranker.getAddedCount(), 2);
+    assertFalse(ranker.addMatch(null, DATE, "A", "B", 10, 2));
+    assertFalse(ranker.removeMatch(DATE, "C", "D", 10, 2));
+    assertEquals(ranker.getAddedCount(), 2);
+  }
+
+  @Test
+  public void testFalsePositivesStillAdded() {
+    PlainRanker plain = new PlainRanker();
+    // far too small a filter, so that most new matches look like possible duplicates
+    DeduplicatingRanker ranker = new DeduplicatingRanker(plain, 1, 0.5);
+    for(int i = 0; i < 1000; i++) {
+      assertTrue(ranker.addMatch("m" + i, DATE, "A", "B", 10, i % 10));
+    }
+    assertTrue(ranker.getExactLookups() > 900, ranker.toString());
+    assertEquals(ranker.getDuplicateCount(), 0);
+    for(int i = 0; i < 1000; i += 3) {
+      assertTrue(ranker.removeMatch("m" + i, DATE, "A", "B", 10, i % 10));
+    }
+    for(int i = 0; i < 1000; i++) {
+      assertEquals(ranker.addMatch("m" + i, DATE, "A", "B", 10, i % 10), i % 3 == 0, "m" + i);
+    }
+    assertEquals(ranker.getAddedCount(), 1000);
+    assertEquals(plain.getGamesPlayed("A"), 1000);
+  }
+
+  @Test
+  public void testBloomFilterRate() {
+    int count = 100000;
+    BloomFilter filter = new BloomFilter(count, 0.01);
+    for(int i = 0; i < count; i++) {
+      filter.put("added" + i);
+    }
+    int falsePositives = 0;
+    for(int i = 0; i < count; i++) {
+      assertTrue(filter.mightContain("added" + i));
+      if(filter.mightContain("other" + i)) {
+        falsePositives++;
+      }
+    }
+    assertTrue(falsePositives < count * 0.02, falsePositives + " false positives");
+  }
+}
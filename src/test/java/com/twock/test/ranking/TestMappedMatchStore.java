@@ -0,0 +1,179 @@
+package com.twock.test.ranking;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import com.twock.ranking.*;
+import org.joda.time.LocalDate;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Chris Pearson
+ */
+public class TestMappedMatchStore {
+  private static final LocalDate DATE = new LocalDate(2014, 3, 1);
+
+  @Test
+  public void testRanksLikePlainRankerAcrossReopen() throws IOException {
+    Path file = Files.createTempDirectory("store").resolve("matches.dat");
+    PlainRanker plain = new WeightedGoalDifferenceRanker();
+    Random random = new Random(3);
+    // small segments so that the records span many mappings
+    try (MappedMatchStore store = new MappedMatchStore(file, 256)) {
+      Ranker ranker = new MappedRanker(store, new WeightedGoalDifferenceRanker());
+      for(int i = 0; i < 200; i++) {
+        String team1 = "T" + random.nextInt(12);
+        String team2 = "T" + (12 + random.nextInt(12));
+        int score1 = random.nextInt(11);
+        int score2 = random.nextInt(11);
+        ranker.addMatch(DATE.plusDays(i), team1, team2, score1, score2);
+        plain.addMatch(DATE.plusDays(i), team1, team2, score1, score2);
+      }
+      assertEquals(store.getRecordCount(), 200);
+      assertRanksMatch(ranker, plain);
+    }
+
+    try (MappedMatchStore store = new MappedMatchStore(file, 256)) {
+      Ranker ranker = new MappedRanker(store, new WeightedGoalDifferenceRanker());
+      assertRanksMatch(ranker, plain);
+      ranker.addMatch(DATE, "T1", "New", 10, 4);
+      plain.addMatch(DATE, "T1", "New", 10, 4);
+      assertRanksMatch(ranker, plain);
+    }
+  }
+
+  @Test
+  public void testRemoveAndUpdate() throws IOException {
+    Path file = Files.createTempDirectory("store").resolve("matches.dat");
+    try (MappedMatchStore store = new MappedMatchStore(file)) {
+      Ranker ranker = new MappedRanker(store, new PlainRanker());
+      ranker.addMatch(DATE, "A", "B", 10, 2);
+      ranker.addMatch(DATE, "B", "C", 10, 5);
+      assertTrue(ranker.updateMatch(DATE, "B", "A", 2, 10, 3, 10));
+      assertFalse(ranker.updateMatch(DATE, "B", "A", 2, 10, 3, 10));
+      assertTrue(ranker.removeMatch(DATE, "C", "B", 5, 10));
+      assertEquals(ranker.getTeams(), Arrays.asList("A", "B"));
+      assertEquals(ranker.getGamesPlayed("C"), 0);
+      assertEquals(ranker.getRanking("A"), 53.5, 1e-9);
+    }
+    try (MappedMatchStore store = new MappedMatchStore(file)) {
+      assertEquals(store.getGamesPlayed("B"), 1);
+      assertEquals(store.getRecordCount(), 2);
+    }
+  }
+
+  @Test
+  public void testChangesAppliedToAggregates() throws IOException {
+    Path file = Files.createTempDirectory("store").resolve("matches.dat");
+    PlainRanker plain = new WinBonusRanker();
+    List<Match> added = new ArrayList<>();
+    Random random = new Random(5);
+    try (MappedMatchStore store = new MappedMatchStore(file, 256)) {
+      Ranker ranker = new MappedRanker(store, new WinBonusRanker());
+      for(int i = 0; i < 300; i++) {
+        int action = random.nextInt(10);
+        if(action < 2 && !added.isEmpty()) {
+          Match match = added.remove(random.nextInt(added.size()));
+          assertTrue(ranker.removeMatch(match.getDate(), match.getTeam2(), match.getTeam1(), match.getTeam2Score(), match.getTeam1Score()));
+          plain.removeMatch(match.getDate(), match.getTeam1(), match.getTeam2(), match.getTeam1Score(), match.getTeam2Score());
+        } else if(action < 4 && !added.isEmpty()) {
+          int index = random.nextInt(added.size());
+          Match match = added.get(index);
+          Match corrected = new Match(match.getDate(), match.getTeam1(), match.getTeam2(), random.nextInt(11), random.nextInt(11));
+          assertTrue(ranker.updateMatch(match.getDate(), match.getTeam1(), match.getTeam2(), match.getTeam1Score(), match.getTeam2Score(), corrected.getTeam1Score(), corrected.getTeam2Score()));
+          plain.updateMatch(match.getDate(), match.getTeam1(), match.getTeam2(), match.getTeam1Score(), match.getTeam2Score(), corrected.getTeam1Score(), corrected.getTeam2Score());
+          added.set(index, corrected);
+        } else {
+          Match match = new Match(DATE.plusDays(i), "T" + random.nextInt(8), "U" + random.nextInt(8), random.nextInt(11), random.nextInt(11));
+          ranker.addMatch(match.getDate(), match.getTeam1(), match.getTeam2(), match.getTeam1Score(), match.getTeam2Score());
+          plain.addMatch(match.getDate(), match.getTeam1(), match.getTeam2(), match.getTeam1Score(), match.getTeam2Score());
+          added.add(match);
+        }
+        // solving builds the aggregates early on, so most changes are applied to them rather than rebuilt
+        if(i % 25 == 0) {
+          assertRanksMatch(ranker, plain);
+        }
+      }
+      assertRanksMatch(ranker, plain);
+      Map<String, String> live = describe(store.aggregate(), store.getTeamNames());
+      // the same surviving matches, aggregated from scratch by a new store
+      try (MappedMatchStore reopened = new MappedMatchStore(file.resolveSibling("copy.dat"))) {
+        for(Match match : added) {
+          reopened.add(match.getDate(), match.getTeam1(), match.getTeam2(), match.getTeam1Score(), match.getTeam2Score());
+        }
+        assertEquals(describe(reopened.aggregate(), reopened.getTeamNames()), live);
+      }
+    }
+  }
+
+  @Test
+  public void testPartlyWrittenTeamNameDropped() throws IOException {
+    Path file = Files.createTempDirectory("store").resolve("matches.dat");
+    try (MappedMatchStore store = new MappedMatchStore(file)) {
+      store.add(DATE, "A", "B", 10, 2);
+    }
+    // a crash while adding a team, before any record referred to it
+    Path teamFile = file.resolveSibling("matches.dat.teams");
+    Files.write(teamFile, "Par".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    try (MappedMatchStore store = new MappedMatchStore(file)) {
+      assertEquals(store.getTeamNames(), Arrays.asList("A", "B"));
+      store.add(DATE, "B", "C", 10, 5);
+    }
+    try (MappedMatchStore store = new MappedMatchStore(file)) {
+      assertEquals(store.getTeamNames(), Arrays.asList("A", "B", "C"));
+      assertEquals(store.getGamesPlayed("C"), 1);
+    }
+  }
+
+  @Test
+  public void testMissingTeamsFileIsCorrupt() throws IOException {
+    Path file = Files.createTempDirectory("store").resolve("matches.dat");
+    try (MappedMatchStore store = new MappedMatchStore(file)) {
+      store.add(DATE, "A", "B", 10, 2);
+      store.add(DATE, "B", "C", 10, 5);
+    }
+    // truncated to the first team, so the records refer to teams it does not name
+    Path teamFile = file.resolveSibling("matches.dat.teams");
+    Files.write(teamFile, Arrays.asList("A"), StandardCharsets.UTF_8);
+    try {
+      new MappedMatchStore(file).close();
+      fail("Opened a store whose records refer to unnamed teams");
+    } catch(RuntimeException e) {
+      assertTrue(e.getMessage().contains("corrupt"), e.getMessage());
+    }
+    Files.delete(teamFile);
+    try {
+      new MappedMatchStore(file).close();
+      fail("Opened a store without its team names");
+    } catch(RuntimeException e) {
+      assertTrue(e.getMessage().contains("only names 0 teams"), e.getMessage());
+    }
+  }
+
+  /**
+   * @return the totals of each pairing with any matches, by the teams' names
+   */
+  private static Map<String, String> describe(MappedMatchStore.Aggregates aggregates, List<String> names) {
+    Map<String, String> result = new HashMap<>();
+    for(int pairing = 0; pairing < aggregates.getPairingCount(); pairing++) {
+      if(aggregates.getMatchCount(pairing) > 0) {
+        result.put(names.get(aggregates.getTeam1(pairing)) + "-" + names.get(aggregates.getTeam2(pairing)), aggregates.getTeam1Total(pairing) + "-" + aggregates.getTeam2Total(pairing) + "/" + aggregates.getMatchCount(pairing));
+      }
+    }
+    return result;
+  }
+
+  private static void assertRanksMatch(Ranker ranker, PlainRanker plain) {
+    assertEquals(ranker.getTeams(), plain.getTeams());
+    for(String team : plain.getTeams()) {
+      assertEquals(ranker.getRanking(team), plain.getRanking(team), 1e-4, team);
+      assertEquals(ranker.getGamesPlayed(team), plain.getGamesPlayed(team), team);
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package com.twock.test.ranking;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import com.twock.ranking.*;
+import org.joda.time.LocalDate;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Chris Pearson
+ */
+public class TestMatchCorrection {
+  private static final LocalDate DATE = new LocalDate(2014, 3, 1);
+
+  @Test
+  public void testRemovalSplitsGroup() {
+    PlainRanker ranker = new PlainRanker();
+    ranker.addMatch(DATE, "A", "B", 10, 2);
+    ranker.addMatch(DATE, "B", "C", 10, 5);
+    ranker.addMatch(DATE, "C", "D", 10, 6);
+    ranker.addMatch(DATE, "E", "F", 10, 9);
+    ranker.solveChangedGroups();
+
+    assertFalse(ranker.removeMatch(DATE, "B", "C", 10, 4));
+    // the teams can be given either way round
+    assertTrue(ranker.removeMatch(DATE, "C", "B", 5, 10));
+    // only the two halves of the split group are re-solved, each centred on 50
+    assertEquals(ranker.solveChangedGroups().keySet(), new HashSet<>(Arrays.asList("A", "B", "C", "D")));
+    assertEquals(ranker.getRanking("A"), 54d, 1e-9);
+    assertEquals(ranker.getRanking("B"), 46d, 1e-9);
+    assertEquals(ranker.getRanking("C"), 52d, 1e-9);
+    assertEquals(ranker.getGamesPlayed("B"), 1);
+  }
+
+  @Test
+  public void testRemovedTeamsForgotten() {
+    PlainRanker ranker = new PlainRanker();
+    ranker.addMatch(DATE, "A", "B", 10, 2);
+    ranker.addMatch(DATE, "B", "C", 10, 5);
+    ranker.getRanking("C");
+
+    assertTrue(ranker.removeMatch(DATE, "B", "C", 10, 5));
+    assertEquals(ranker.getTeams(), Arrays.asList("A", "B"));
+    assertEquals(ranker.getGamesPlayed("C"), 0);
+    assertEquals(ranker.getRanking("A"), 54d, 1e-9);
+    try {
+      ranker.getRanking("C");
+      fail("C has no matches left");
+    } catch(RuntimeException e) {
+      assertTrue(e.getMessage().contains("C"));
+    }
+    assertFalse(ranker.removeMatch(DATE, "B", "C", 10, 5));
+  }
+
+  @Test
+  public void testUpdateMatchesRebuild() {
+    PlainRanker ranker = new PlainRanker();
+    ranker.addMatch(DATE, "A", "B", 10, 2);
+    ranker.addMatch(DATE, "B", "C", 10, 5);
+    ranker.addMatch(DATE, "C", "A", 10, 6);
+    ranker.getRanking("A");
+    assertFalse(ranker.updateMatch(DATE, "B", "C", 10, 6, 10, 8));
+    assertTrue(ranker.updateMatch(DATE, "B", "C", 10, 5, 10, 8));
+
+    PlainRanker rebuilt = new PlainRanker();
+    rebuilt.addMatch(DATE, "A", "B", 10, 2);
+    rebuilt.addMatch(DATE, "B", "C", 10, 8);
+    rebuilt.addMatch(DATE, "C", "A", 10, 6);
+    for(String team : rebuilt.getTeams()) {
+      assertEquals(ranker.getRanking(team), rebuilt.getRanking(team), 1e-6, team);
+    }
+    assertEquals(ranker.getGamesPlayed("B"), 2);
+  }
+
+  @Test
+  public void testRefineAfterMergeAndRemoval() {
+    PlainRanker ranker = new PlainRanker();
+    ranker.setTolerance(0.1);
+    // two triangles whose results disagree, so neither is solved exactly at this tolerance
+    ranker.addMatch(DATE, "A", "B", 10, 2);
+    ranker.addMatch(DATE, "B", "E", 10, 3);
+    ranker.addMatch(DATE, "E", "A", 10, 5);
+    ranker.addMatch(DATE, "C", "D", 10, 2);
+    ranker.addMatch(DATE, "D", "F", 10, 3);
+    ranker.addMatch(DATE, "F", "C", 10, 5);
+    ranker.getRanking("A");
+    assertTrue(ranker.getStepSize("C") > 0);
+    // merges the triangles, then takes C away from what is left of its own
+    ranker.addMatch(DATE, "B", "C", 10, 5);
+    ranker.getRanking("A");
+    assertTrue(ranker.removeMatch(DATE, "B", "C", 10, 5));
+    assertTrue(ranker.removeMatch(DATE, "C", "D", 10, 2));
+    assertTrue(ranker.removeMatch(DATE, "F", "C", 10, 5));
+    ranker.getRanking("A");
+
+    ranker.setTolerance(0.001);
+    assertEquals(ranker.getTeams(), Arrays.asList("A", "B", "D", "E", "F"));
+    assertEquals(ranker.getRanking("D"), 53.5, 1e-2);
+    assertTrue(ranker.getStepSize("A") < 0.001);
+  }
+
+  @Test
+  public void testShardedOnlyRemovesAddedMatches() throws IOException {
+    RankWorker worker = new RankWorker(0);
+    worker.start();
+    ShardedRanker ranker = new ShardedRanker(new PlainRanker(), Arrays.asList(worker.getAddress()), 10);
+    try {
+      ranker.addMatch(DATE, "A", "B", 10, 2);
+      ranker.addMatch(DATE, "A", "B", 10, 2);
+      // the pairing has enough goals for this, but it was never played
+      assertFalse(ranker.removeMatch(DATE, "A", "B", 10, 0));
+      assertFalse(ranker.updateMatch(DATE, "A", "B", 5, 2, 10, 2));
+      assertTrue(ranker.removeMatch(DATE, "B", "A", 2, 10));
+      assertTrue(ranker.updateMatch(DATE, "A", "B", 10, 2, 10, 4));
+      assertFalse(ranker.removeMatch(DATE, "A", "B", 10, 2));
+      assertEquals(ranker.getRanking("A"), 53d, 1e-9);
+    } finally {
+      ranker.shutdown();
+      worker.stop();
+    }
+  }
+
+  @Test
+  public void testFeedPublishesRemovedTeams() throws InterruptedException {
+    PlainRanker ranker = new PlainRanker();
+    RatingChangeFeed.Subscription subscription = RatingChangeFeed.attach(ranker, 0.000001).subscribe(100);
+    ranker.addMatch(DATE, "A", "B", 10, 2);
+    ranker.addMatch(DATE, "B", "C", 10, 5);
+    ranker.getRanking("A");
+    for(int i = 0; i < 3; i++) {
+      assertNotNull(subscription.poll(10, TimeUnit.SECONDS));
+    }
+
+    assertTrue(ranker.removeMatch(DATE, "B", "C", 10, 5));
+    RatingChange removed = subscription.poll(10, TimeUnit.SECONDS);
+    assertEquals(removed.getTeam(), "C");
+    assertTrue(removed.isRemoved());
+    assertEquals(removed.getOldRank(), 3);
+    assertEquals(removed.getNewRank(), 0);
+    // the remaining teams are ranked without C
+    ranker.getRanking("A");
+    RatingChange a = subscription.poll(10, TimeUnit.SECONDS);
+    assertEquals(a.getTeam(), "A");
+    assertEquals(a.getNewRank(), 1);
+    RatingChange b = subscription.poll(10, TimeUnit.SECONDS);
+    assertEquals(b.getTeam(), "B");
+    assertEquals(b.getNewRank(), 2);
+    assertNull(subscription.poll(0, TimeUnit.MILLISECONDS));
+  }
+}
@@ -0,0 +1,107 @@
+package com.twock.test.ranking;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.twock.ranking.Match;
+import com.twock.ranking.MatchFilter;
+import com.twock.ranking.MultiViewRanker;
+import com.twock.ranking.PlainRanker;
+import org.joda.time.LocalDate;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Chris Pearson
+ */
+public class TestMultiViewRanker {
+  private static final LocalDate DATE = new LocalDate(2014, 3, 1);
+
+  @Test
+  public void testViewsMatchSeparateRankers() throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      MultiViewRanker ranker = new MultiViewRanker(new PlainRanker(), executor);
+      ranker.addView("all", new MatchFilter() {
+        @Override
+        public boolean accept(Match match, Map<String, String> tags) {
+          return true;
+        }
+      });
+      ranker.addView("north", MultiViewRanker.tagEquals("division", "north"));
+      ranker.addView("2014", MultiViewRanker.tagEquals("season", "2014"));
+      add(ranker, "A", "B", 10, 2, "north", "2014");
+      add(ranker, "B", "C", 10, 5, "north", "2013");
+      add(ranker, "C", "A", 10, 6, "south", "2014");
+      add(ranker, "D", "E", 3, 10, "south", "2014");
+
+      PlainRanker all = new PlainRanker();
+      all.addMatch(DATE, "A", "B", 10, 2);
+      all.addMatch(DATE, "B", "C", 10, 5);
+      all.addMatch(DATE, "C", "A", 10, 6);
+      all.addMatch(DATE, "D", "E", 3, 10);
+      MultiViewRanker.View view = ranker.getView("all");
+      assertEquals(view.getTeams(), all.getTeams());
+      for(String team : all.getTeams()) {
+        assertEquals(view.getRanking(team), all.getRanking(team), 1e-6, team);
+      }
+
+      PlainRanker north = new PlainRanker();
+      north.addMatch(DATE, "A", "B", 10, 2);
+      north.addMatch(DATE, "B", "C", 10, 5);
+      view = ranker.getView("north");
+      assertEquals(view.getTeams(), Arrays.asList("A", "B", "C"));
+      assertEquals(view.getGamesPlayed("B"), 2);
+      assertEquals(view.getGamesPlayed("D"), 0);
+      for(String team : north.getTeams()) {
+        assertEquals(view.getRanking(team), north.getRanking(team), 1e-6, team);
+      }
+
+      MultiViewRanker.View season = ranker.getView("2014");
+      assertEquals(season.getTeams(), Arrays.asList("A", "B", "C", "D", "E"));
+      // a new match only re-solves the views that include it
+      add(ranker, "A", "C", 10, 0, "north", "2015");
+      assertEquals(ranker.getView("north").getGamesPlayed("A"), 2);
+      assertEquals(ranker.getView("all").getGamesPlayed("A"), 3);
+      assertSame(ranker.getView("2014"), season);
+      assertEquals(season.getGamesPlayed("A"), 2);
+      assertEquals(ranker.getViews().keySet(), new LinkedHashSet<>(Arrays.asList("all", "north", "2014")));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testDuplicateViewName() throws InterruptedException {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      MultiViewRanker ranker = new MultiViewRanker(new PlainRanker(), executor);
+      ranker.addView("north", MultiViewRanker.tagEquals("division", "north"));
+      try {
+        ranker.addView("north", MultiViewRanker.tagEquals("division", "south"));
+        fail("Added a second view called north");
+      } catch(IllegalArgumentException e) {
+        assertTrue(e.getMessage().contains("north"));
+      }
+      // the original view is kept
+      add(ranker, "A", "B", 10, 2, "north", "2014");
+      add(ranker, "C", "D", 10, 2, "south", "2014");
+      assertEquals(ranker.getView("north").getTeams(), Arrays.asList("A", "B"));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void add(MultiViewRanker ranker, String team1, String team2, int score1, int score2, String division, String season) {
+    Map<String, String> tags = new HashMap<>();
+    tags.put("division", division);
+    tags.put("season", season);
+    ranker.addMatch(DATE, team1, team2, score1, score2, Collections.unmodifiableMap(tags));
+  }
+}
@@ -0,0 +1,97 @@
+package com.twock.test.ranking;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.twock.ranking.MultigridSolver;
+import com.twock.ranking.PlainRanker;
+import com.twock.ranking.WeightedGoalDifferenceRanker;
+import org.joda.time.LocalDate;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Chris Pearson
+ */
+public class TestMultigridSolver {
+  @DataProvider(name = "leagues")
+  public Object[][] leagueData() {
+    return new Object[][]{
+      {new String[]{"A-9,B-10"}},
+      {new String[]{"A-10,B-0", "A-0,B-10"}},
+      {new String[]{"A-10,B-0", "B-10,C-0", "C-10,A-1"}},
+      {new String[]{"A-10,B-5", "B-10,C-5", "C-10,D-5", "B-10,D-2", "D-10,E-2", "E-10,F-2", "G-10,H-3"}},
+      {new String[]{"A-10,B-2", "A-10,C-6", "A-10,D-4", "B-10,C-2", "B-10,D-2", "C-10,D-1", "A-7,D-10"}},
+    };
+  }
+
+  @Test(dataProvider = "leagues")
+  public void testMatchesDenseSolver(String[] matches) {
+    PlainRanker dense = new WeightedGoalDifferenceRanker();
+    PlainRanker multigrid = new WeightedGoalDifferenceRanker();
+    multigrid.setSolver(new MultigridSolver());
+    for(String match : matches) {
+      String[] parts = match.split(",");
+      String[] match1 = parts[0].split("-");
+      String[] match2 = parts[1].split("-");
+      dense.addMatch(new LocalDate(), match1[0], match2[0], Integer.parseInt(match1[1]), Integer.parseInt(match2[1]));
+      multigrid.addMatch(new LocalDate(), match1[0], match2[0], Integer.parseInt(match1[1]), Integer.parseInt(match2[1]));
+    }
+    for(String team : dense.getTeams()) {
+      assertEquals(multigrid.getRanking(team), dense.getRanking(team), 0.000001, team);
+    }
+  }
+
+  @Test
+  public void testLargeWeaklyLinkedLeague() {
+    // a long chain of regions, each tightly connected inside but only linked to the next by a single pairing
+    int regionSize = 20;
+    int teamCount = 20000;
+    Random random = new Random(1);
+    int pairingCount = teamCount / regionSize * (regionSize * 3) + teamCount / regionSize;
+    int[] team1 = new int[pairingCount];
+    int[] team2 = new int[pairingCount];
+    double[] skill = new double[pairingCount];
+    int pairing = 0;
+    for(int region = 0; region < teamCount / regionSize; region++) {
+      int first = region * regionSize;
+      for(int i = 0; i < regionSize; i++) {
+        for(int offset = 1; offset <= 3; offset++) {
+          team1[pairing] = first + i;
+          team2[pairing] = first + (i + offset) % regionSize;
+          skill[pairing++] = random.nextInt(21) - 10;
+        }
+      }
+      if(first + regionSize < teamCount) {
+        team1[pairing] = first + regionSize - 1;
+        team2[pairing] = first + regionSize;
+        skill[pairing++] = random.nextInt(21) - 10;
+      }
+    }
+    int[] usedTeam1 = Arrays.copyOf(team1, pairing);
+    int[] usedTeam2 = Arrays.copyOf(team2, pairing);
+    double[] usedSkill = Arrays.copyOf(skill, pairing);
+    double[] ratings = new double[teamCount];
+    Arrays.fill(ratings, 50);
+
+    double stepSize = new MultigridSolver().solve(usedTeam1, usedTeam2, usedSkill, ratings, 0, Long.MAX_VALUE);
+
+    assertEquals(stepSize, 0d);
+    // at the least squares solution the gradient of every team is zero
+    double[] gradient = new double[teamCount];
+    double total = 0;
+    for(int i = 0; i < pairing; i++) {
+      double error = ratings[usedTeam1[i]] - ratings[usedTeam2[i]] - usedSkill[i];
+      gradient[usedTeam1[i]] += error;
+      gradient[usedTeam2[i]] -= error;
+    }
+    for(int team = 0; team < teamCount; team++) {
+      assertTrue(Math.abs(gradient[team]) < 0.00001, "gradient of team " + team + " is " + gradient[team]);
+      total += ratings[team];
+    }
+    assertEquals(total / teamCount, 50, 0.000001);
+  }
+}
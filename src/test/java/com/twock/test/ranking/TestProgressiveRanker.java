@@ -0,0 +1,67 @@
+package com.twock.test.ranking;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.twock.ranking.PlainRanker;
+import com.twock.ranking.ProgressiveRanker;
+import org.joda.time.LocalDate;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Chris Pearson
+ */
+public class TestProgressiveRanker {
+  private static final String[][] MATCHES = {
+    {"A", "10", "2", "B"},
+    {"B", "10", "5", "C"},
+    {"C", "10", "6", "A"},
+  };
+
+  @Test
+  public void testRefinesToFullPrecision() throws InterruptedException {
+    ProgressiveRanker ranker = new ProgressiveRanker(new PlainRanker(), 0.1, 1, TimeUnit.SECONDS);
+    PlainRanker exact = new PlainRanker();
+    final Semaphore converged = new Semaphore(0);
+    ranker.addListener(new ProgressiveRanker.Listener() {
+      @Override
+      public void published(ProgressiveRanker.Snapshot snapshot) {
+        if(snapshot.isFullyRefined()) {
+          converged.release();
+        }
+      }
+    });
+    for(String[] match : MATCHES) {
+      ranker.addMatch(new LocalDate(), match[0], match[3], Integer.parseInt(match[1]), Integer.parseInt(match[2]));
+      exact.addMatch(new LocalDate(), match[0], match[3], Integer.parseInt(match[1]), Integer.parseInt(match[2]));
+    }
+    ProgressiveRanker.Snapshot first = ranker.getSnapshot();
+    assertFalse(first.isFullyRefined(), first.toString());
+    assertTrue(first.getMaxStepSize() < 0.1, "step size " + first.getMaxStepSize());
+    // the bound holds for the approximate ratings, and is not just the step size
+    assertTrue(first.getMaxErrorBound() > 0, first.toString());
+    for(String team : exact.getTeams()) {
+      assertTrue(Math.abs(first.getRating(team) - exact.getRanking(team)) <= first.getErrorBound(team), team);
+    }
+    assertTrue(converged.tryAcquire(30, TimeUnit.SECONDS));
+    ProgressiveRanker.Snapshot last = ranker.getSnapshot();
+    assertTrue(last.isFullyRefined());
+    assertTrue(last.getMaxErrorBound() < 0.000001, last.toString());
+    for(String team : exact.getTeams()) {
+      assertEquals(last.getRating(team), exact.getRanking(team), 0.000001, team);
+    }
+    // the refined copy now ranks later matches
+    ranker.addMatch(new LocalDate(), "D", "A", 10, 7);
+    exact.addMatch(new LocalDate(), "D", "A", 10, 7);
+    ranker.getSnapshot();
+    assertTrue(converged.tryAcquire(30, TimeUnit.SECONDS));
+    for(String team : exact.getTeams()) {
+      assertEquals(ranker.getSnapshot().getRating(team), exact.getRanking(team), 0.000001, team);
+    }
+    ranker.shutdown();
+  }
+}
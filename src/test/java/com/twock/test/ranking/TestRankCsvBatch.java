@@ -0,0 +1,69 @@
+package com.twock.test.ranking;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import com.twock.ranking.PlainRanker;
+import com.twock.ranking.RankCsv;
+import com.twock.ranking.RankCsvBatch;
+import com.twock.ranking.RankerModel;
+import org.joda.time.LocalDate;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Chris Pearson
+ */
+public class TestRankCsvBatch {
+  @Test
+  public void testManifestIsolatesFailures() throws IOException, InterruptedException {
+    Path dir = Files.createTempDirectory("batch");
+    Files.write(dir.resolve("league1.csv"), Arrays.asList("A,10,2,B", "B,10,5,C"), StandardCharsets.UTF_8);
+    Files.write(dir.resolve("league2.csv"), Arrays.asList("Player 1,Result 1,Result 2,Player 2", "D,3,10,E"), StandardCharsets.UTF_8);
+    Path manifest = dir.resolve("manifest.txt");
+    Files.write(manifest, Arrays.asList("# nightly leagues", "league1.csv", "missing.csv", "league2.csv"), StandardCharsets.UTF_8);
+    Path outputDir = dir.resolve("out");
+
+    List<RankCsvBatch.FileResult> results = new RankCsvBatch(RankerModel.fromName("plain"), 2).run(manifest, outputDir);
+
+    assertEquals(results.size(), 3);
+    assertNull(results.get(0).getError());
+    assertEquals(results.get(0).getMatches(), 2);
+    assertEquals(Files.readAllLines(outputDir.resolve("league1_output.csv"), StandardCharsets.UTF_8).get(0).substring(0, 4), "1,A,");
+    assertNotNull(results.get(1).getError());
+    assertNull(results.get(2).getError());
+    assertEquals(Files.readAllLines(outputDir.resolve("league2_output.csv"), StandardCharsets.UTF_8).get(0).substring(0, 4), "1,E,");
+  }
+
+  @Test
+  public void testMoreFilesThanQueued() throws IOException, InterruptedException {
+    // far more files than the pools queue, so stages run on the thread handing them on
+    Path dir = Files.createTempDirectory("batch");
+    for(int i = 0; i < 50; i++) {
+      Files.write(dir.resolve(String.format("league%02d.csv", i)), Arrays.asList("A" + i + ",10,2,B", "B,10,5,C"), StandardCharsets.UTF_8);
+    }
+    Path outputDir = dir.resolve("out");
+
+    List<RankCsvBatch.FileResult> results = new RankCsvBatch(RankerModel.fromName("plain"), 1).run(dir, outputDir);
+
+    assertEquals(results.size(), 50);
+    for(int i = 0; i < 50; i++) {
+      assertNull(results.get(i).getError());
+      assertEquals(results.get(i).getMatches(), 2);
+      assertEquals(Files.readAllLines(outputDir.resolve(String.format("league%02d_output.csv", i)), StandardCharsets.UTF_8).get(0).split(",")[1], "A" + i);
+    }
+  }
+
+  @Test
+  public void testFifthColumnDateOrIgnored() {
+    PlainRanker ranker = new PlainRanker();
+    assertEquals(RankCsv.readMatches(Arrays.asList("A,10,2,B,2014-03-01", "B,10,5,C,league 1", "C,x,5,D,2014-03-01"), ranker), 2);
+    assertTrue(ranker.removeMatch(new LocalDate(2014, 3, 1), "A", "B", 10, 2));
+    assertTrue(ranker.removeMatch(new LocalDate(), "B", "C", 10, 5));
+  }
+}
@@ -0,0 +1,148 @@
+package com.twock.test.ranking;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import com.twock.ranking.PlainRanker;
+import com.twock.ranking.RankingServer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+
+/**
+ * @author Chris Pearson
+ */
+public class TestRankingServer {
+  private RankingServer server;
+
+  @BeforeMethod
+  public void startServer() throws IOException {
+    server = new RankingServer(new PlainRanker(), new InetSocketAddress("localhost", 0), 2);
+    server.start();
+  }
+
+  @AfterMethod
+  public void stopServer() {
+    server.stop();
+  }
+
+  @Test
+  public void testLeaderboardETag() throws IOException {
+    assertEquals(request("POST", "/matches", null, "A,10,2,B\nB,10,5,C,2014-01-01\nnot a match").getResponseCode(), 200);
+
+    HttpURLConnection leaderboard = request("GET", "/leaderboard", null, null);
+    assertEquals(leaderboard.getResponseCode(), 200);
+    String etag = leaderboard.getHeaderField("ETag");
+    assertEquals(readBody(leaderboard).split("\r\n")[0].split(",")[1], "A");
+    assertEquals(request("GET", "/leaderboard", etag, null).getResponseCode(), 304);
+
+    HttpURLConnection team = request("GET", "/teams/B", null, null);
+    assertEquals(team.getResponseCode(), 200);
+    assertEquals(readBody(team).trim().split(",")[2], "2");
+    assertEquals(request("GET", "/teams/Z", null, null).getResponseCode(), 404);
+
+    assertEquals(request("POST", "/matches", null, "C,10,0,A").getResponseCode(), 200);
+    HttpURLConnection changed = request("GET", "/leaderboard", etag, null);
+    assertEquals(changed.getResponseCode(), 200);
+    assertNotEquals(changed.getHeaderField("ETag"), etag);
+  }
+
+  @Test
+  public void testETagsDifferAcrossRestarts() throws IOException {
+    assertEquals(request("POST", "/matches", null, "A,10,2,B").getResponseCode(), 200);
+    String etag = request("GET", "/teams/A", null, null).getHeaderField("ETag");
+    assertEquals(request("GET", "/teams/A", etag, null).getResponseCode(), 304);
+
+    // the same data at the same version, served by a restarted server
+    server.stop();
+    server = new RankingServer(new PlainRanker(), new InetSocketAddress("localhost", 0), 2);
+    server.start();
+    assertEquals(request("POST", "/matches", null, "A,10,2,B").getResponseCode(), 200);
+    HttpURLConnection restarted = request("GET", "/teams/A", etag, null);
+    assertEquals(restarted.getResponseCode(), 200);
+    assertNotEquals(restarted.getHeaderField("ETag"), etag);
+  }
+
+  @Test
+  public void testConcurrentClients() throws Exception {
+    final int clients = 8;
+    final int requests = 50;
+    ExecutorService executor = Executors.newFixedThreadPool(clients);
+    try {
+      List<Future<Integer>> futures = new ArrayList<>();
+      for(int c = 0; c < clients; c++) {
+        final String team = "T" + c;
+        futures.add(executor.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws IOException {
+            int posted = 0;
+            for(int i = 0; i < requests; i++) {
+              if(i % 5 == 0) {
+                assertEquals(request("POST", "/matches", null, team + ",10," + (i % 10) + ",Common").getResponseCode(), 200);
+                posted++;
+              } else {
+                HttpURLConnection connection = request("GET", i % 2 == 0 ? "/leaderboard" : "/teams/Common", null, null);
+                assertEquals(connection.getResponseCode(), 200);
+                readBody(connection);
+              }
+            }
+            return posted;
+          }
+        }));
+      }
+      int posted = 0;
+      for(Future<Integer> future : futures) {
+        posted += future.get(60, TimeUnit.SECONDS);
+      }
+      HttpURLConnection team = request("GET", "/teams/Common", null, null);
+      assertEquals(readBody(team).trim().split(",")[2], String.valueOf(posted));
+      assertEquals(readBody(request("GET", "/leaderboard", null, null)).split("\r\n").length, clients + 1);
+      assertEquals(server.getVersion(), 1 + posted);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testInvalidSubmission() throws IOException {
+    assertEquals(request("POST", "/matches", null, "A,11,2,B").getResponseCode(), 400);
+    assertEquals(request("DELETE", "/leaderboard", null, null).getResponseCode(), 405);
+  }
+
+  private HttpURLConnection request(String method, String path, String ifNoneMatch, String body) throws IOException {
+    InetSocketAddress address = server.getAddress();
+    HttpURLConnection connection = (HttpURLConnection)new URL("http", address.getHostString(), address.getPort(), path).openConnection();
+    connection.setRequestMethod(method);
+    if(ifNoneMatch != null) {
+      connection.setRequestProperty("If-None-Match", ifNoneMatch);
+    }
+    if(body != null) {
+      connection.setDoOutput(true);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    return connection;
+  }
+
+  private static String readBody(HttpURLConnection connection) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    try (Reader reader = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)) {
+      char[] buffer = new char[1024];
+      int read;
+      while((read = reader.read(buffer)) != -1) {
+        sb.append(buffer, 0, read);
+      }
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,136 @@
+package com.twock.test.ranking;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.twock.ranking.PlainRanker;
+import com.twock.ranking.RatingChange;
+import com.twock.ranking.RatingChangeFeed;
+import org.joda.time.LocalDate;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Chris Pearson
+ */
+public class TestRatingChangeFeed {
+  @Test
+  public void testOnlyChangedTeamsPublished() throws InterruptedException {
+    PlainRanker ranker = new PlainRanker();
+    RatingChangeFeed.Subscription subscription = RatingChangeFeed.attach(ranker, 0.000001).subscribe(100);
+    ranker.addMatch(new LocalDate(), "A", "B", 10, 2);
+    ranker.addMatch(new LocalDate(), "C", "D", 10, 5);
+    ranker.getRanking("A");
+    List<RatingChange> first = take(subscription, 4);
+    assertEquals(first.get(0).getTeam(), "A");
+    assertEquals(first.get(0).getNewRank(), 1);
+    assertTrue(Double.isNaN(first.get(0).getOldRating()));
+    assertEquals(first.get(3).getTeam(), "D");
+    assertEquals(first.get(3).getNewRank(), 3);
+    assertNull(subscription.poll(0, TimeUnit.MILLISECONDS));
+
+    ranker.addMatch(new LocalDate(), "C", "D", 10, 0);
+    ranker.getRanking("A");
+    List<RatingChange> second = take(subscription, 2);
+    assertEquals(second.get(0).getSequence(), 2);
+    assertEquals(second.get(0).getTeam(), "C");
+    assertEquals(second.get(0).getOldRating(), 52.5, 0.000001);
+    assertEquals(second.get(0).getNewRating(), 53.75, 0.000001);
+    assertEquals(second.get(0).getRankChange(), 0);
+    assertEquals(second.get(1).getTeam(), "D");
+    assertNull(subscription.poll(0, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testSlowSubscriberReceivesEverythingInOrder() throws InterruptedException {
+    PlainRanker ranker = new PlainRanker();
+    final RatingChangeFeed.Subscription subscription = RatingChangeFeed.attach(ranker, 0).subscribe(1);
+    final List<RatingChange> received = new ArrayList<>();
+    Thread consumer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          received.addAll(take(subscription, 6));
+        } catch(InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    consumer.start();
+    // separate groups, so each solve publishes just its two new teams
+    for(int i = 0; i < 3; i++) {
+      ranker.addMatch(new LocalDate(), "A" + i, "B" + i, 10, i);
+      ranker.getRanking("A" + i);
+    }
+    consumer.join(10000);
+    assertEquals(received.size(), 6);
+    for(int i = 1; i < received.size(); i++) {
+      assertTrue(received.get(i - 1).getSequence() <= received.get(i).getSequence());
+    }
+    subscription.cancel();
+  }
+
+  @Test
+  public void testRanksMatchFullSort() throws InterruptedException {
+    PlainRanker ranker = new PlainRanker();
+    RatingChangeFeed.Subscription subscription = RatingChangeFeed.attach(ranker, 0).subscribe(1000);
+    Random random = new Random(5);
+    for(int i = 0; i < 60; i++) {
+      int group = random.nextInt(8);
+      ranker.addMatch(new LocalDate(), "G" + group + "T" + random.nextInt(3), "G" + group + "T" + (3 + random.nextInt(3)), random.nextInt(11), random.nextInt(11));
+      ranker.getRanking(ranker.getTeams().get(0));
+      for(RatingChange change = subscription.poll(0, TimeUnit.MILLISECONDS); change != null; change = subscription.poll(0, TimeUnit.MILLISECONDS)) {
+        int above = 0;
+        for(String team : ranker.getTeams()) {
+          if(ranker.getRanking(team) > change.getNewRating()) {
+            above++;
+          }
+        }
+        assertEquals(change.getNewRank(), 1 + above, change.toString());
+      }
+    }
+  }
+
+  @Test
+  public void testSlowDriftPublished() throws InterruptedException {
+    RatingChangeFeed feed = new RatingChangeFeed(0.5);
+    RatingChangeFeed.Subscription subscription = feed.subscribe(100);
+    Map<String, Double> previous = new HashMap<>();
+    // A drifts down by 0.1 a solve, never moving by more than epsilon in any one solve
+    for(int i = 0; i <= 29; i++) {
+      Map<String, Double> updated = new HashMap<>();
+      updated.put("A", (550 - i) / 10d);
+      updated.put("B", 100 - updated.get("A"));
+      feed.solved(previous, updated);
+      previous = updated;
+    }
+    List<RatingChange> changes = new ArrayList<>();
+    for(RatingChange change = subscription.poll(0, TimeUnit.MILLISECONDS); change != null; change = subscription.poll(0, TimeUnit.MILLISECONDS)) {
+      if(change.getTeam().equals("A")) {
+        changes.add(change);
+      }
+    }
+    assertTrue(changes.size() >= 5, changes.toString());
+    for(int i = 1; i < changes.size(); i++) {
+      assertEquals(changes.get(i).getOldRating(), changes.get(i - 1).getNewRating(), changes.toString());
+      assertTrue(changes.get(i).getOldRating() - changes.get(i).getNewRating() > 0.5, changes.get(i).toString());
+    }
+    // subscribers are never more than epsilon out of date
+    assertEquals(changes.get(changes.size() - 1).getNewRating(), 52.1, 0.5 + 1e-9);
+  }
+
+  private static List<RatingChange> take(RatingChangeFeed.Subscription subscription, int count) throws InterruptedException {
+    List<RatingChange> result = new ArrayList<>();
+    for(int i = 0; i < count; i++) {
+      RatingChange change = subscription.poll(10, TimeUnit.SECONDS);
+      assertNotNull(change, "change " + i);
+      result.add(change);
+    }
+    return result;
+  }
+}
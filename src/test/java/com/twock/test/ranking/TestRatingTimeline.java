@@ -0,0 +1,67 @@
+package com.twock.test.ranking;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.*;
+
+import com.twock.ranking.Match;
+import com.twock.ranking.PlainRanker;
+import com.twock.ranking.RatingTimeline;
+import org.joda.time.LocalDate;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author Chris Pearson
+ */
+public class TestRatingTimeline {
+  private static final LocalDate DAY1 = new LocalDate(2014, 1, 1);
+  private static final LocalDate DAY2 = DAY1.plusDays(1);
+  private static final LocalDate DAY3 = DAY1.plusDays(2);
+
+  @Test
+  public void testReplayMatchesColdSolve() throws IOException {
+    List<Match> matches = Arrays.asList(
+      new Match(DAY3, "A", "C", 10, 6),
+      new Match(DAY1, "A", "B", 10, 2),
+      new Match(DAY1, "E", "F", 10, 5),
+      new Match(DAY2, "B", "C", 10, 2),
+      new Match(DAY3, "C", "D", 10, 1)
+    );
+    final Map<LocalDate, Map<String, Double>> timeline = new TreeMap<>();
+    new RatingTimeline(new PlainRanker()).replay(matches, new RatingTimeline.Listener() {
+      @Override
+      public void rating(String team, LocalDate date, double rating) {
+        if(!timeline.containsKey(date)) {
+          timeline.put(date, new HashMap<String, Double>());
+        }
+        timeline.get(date).put(team, rating);
+      }
+    });
+    assertEquals(timeline.keySet(), new HashSet<>(Arrays.asList(DAY1, DAY2, DAY3)));
+    // E and F only played on day one, so are not repeated afterwards
+    assertTrue(timeline.get(DAY1).containsKey("E"));
+    assertFalse(timeline.get(DAY2).containsKey("E"));
+    assertFalse(timeline.get(DAY3).containsKey("F"));
+    // day two matches a cold solve of the first two days
+    PlainRanker day2 = new PlainRanker();
+    for(Match match : matches) {
+      if(!match.getDate().isAfter(DAY2)) {
+        day2.addMatch(match.getDate(), match.getTeam1(), match.getTeam2(), match.getTeam1Score(), match.getTeam2Score());
+      }
+    }
+    for(String team : Arrays.asList("A", "B", "C")) {
+      assertEquals(timeline.get(DAY2).get(team), day2.getRanking(team), 0.000001, team);
+    }
+  }
+
+  @Test
+  public void testCsvWriter() throws IOException {
+    StringWriter writer = new StringWriter();
+    new RatingTimeline(new PlainRanker()).replay(Arrays.asList(new Match(DAY1, "A", "B", 10, 10)), RatingTimeline.csvWriter(writer));
+    assertEquals(writer.toString(), "A,2014-01-01,50.0\r\nB,2014-01-01,50.0\r\n");
+  }
+}
@@ -0,0 +1,114 @@
+package com.twock.test.ranking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.twock.ranking.Match;
+import com.twock.ranking.PlainRanker;
+import com.twock.ranking.RatingUncertainty;
+import org.joda.time.LocalDate;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Chris Pearson
+ */
+public class TestRatingUncertainty {
+  private static final LocalDate DATE = new LocalDate(2014, 3, 1);
+  private static final List<String> TEAMS = Arrays.asList("A", "B", "C", "D", "E");
+  private ExecutorService executor;
+  private List<Match> matches;
+
+  @BeforeClass
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+    // A to D play each other with inconsistent results, E has played only D
+    matches = new ArrayList<>();
+    matches.add(new Match(DATE, "A", "B", 10, 2));
+    matches.add(new Match(DATE, "B", "C", 10, 5));
+    matches.add(new Match(DATE, "C", "A", 10, 6));
+    matches.add(new Match(DATE, "A", "D", 10, 7));
+    matches.add(new Match(DATE, "B", "D", 4, 10));
+    matches.add(new Match(DATE, "C", "D", 10, 9));
+    matches.add(new Match(DATE, "D", "E", 10, 3));
+  }
+
+  @AfterClass
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testMatchesExactVariance() throws InterruptedException {
+    RatingUncertainty.Estimate estimate = new RatingUncertainty(new PlainRanker(), executor, 4000, 1).estimate(matches);
+    double[] exact = exactLaplacianPseudoInverseDiagonal();
+    for(int team = 0; team < TEAMS.size(); team++) {
+      double standardError = estimate.getStandardError(TEAMS.get(team));
+      double exactError = Math.sqrt(estimate.getResidualVariance() * exact[team]);
+      assertEquals(standardError, exactError, exactError * 0.05, TEAMS.get(team));
+    }
+    PlainRanker ranker = new PlainRanker();
+    for(Match match : matches) {
+      ranker.addMatch(match.getDate(), match.getTeam1(), match.getTeam2(), match.getTeam1Score(), match.getTeam2Score());
+    }
+    assertEquals(estimate.getRating("A"), ranker.getRanking("A"), 1e-4);
+  }
+
+  @Test
+  public void testFewerGamesLessCertain() throws InterruptedException {
+    RatingUncertainty uncertainty = new RatingUncertainty(new PlainRanker(), executor, 50, 7);
+    RatingUncertainty.Estimate estimate = uncertainty.estimate(matches);
+    assertTrue(estimate.getStandardError("E") > estimate.getStandardError("D"));
+    assertTrue(estimate.getStandardError("E") > estimate.getStandardError("A"));
+    // the same seed gives the same estimate, however the probes are scheduled
+    assertEquals(uncertainty.estimate(matches).getStandardError("E"), estimate.getStandardError("E"));
+  }
+
+  /**
+   * For a connected graph (L + J/n) is invertible with inverse L+ + J/n, where J is all ones.
+   */
+  private double[] exactLaplacianPseudoInverseDiagonal() {
+    int n = TEAMS.size();
+    double[][] a = new double[n][2 * n];
+    for(int i = 0; i < n; i++) {
+      for(int j = 0; j < n; j++) {
+        a[i][j] = 1d / n;
+      }
+      a[i][n + i] = 1;
+    }
+    for(Match match : matches) {
+      int i = TEAMS.indexOf(match.getTeam1());
+      int j = TEAMS.indexOf(match.getTeam2());
+      a[i][i]++;
+      a[j][j]++;
+      a[i][j]--;
+      a[j][i]--;
+    }
+    // Gauss-Jordan elimination, the matrix being symmetric positive definite
+    for(int col = 0; col < n; col++) {
+      double pivot = a[col][col];
+      for(int k = 0; k < 2 * n; k++) {
+        a[col][k] /= pivot;
+      }
+      for(int row = 0; row < n; row++) {
+        if(row != col) {
+          double factor = a[row][col];
+          for(int k = 0; k < 2 * n; k++) {
+            a[row][k] -= factor * a[col][k];
+          }
+        }
+      }
+    }
+    double[] result = new double[n];
+    for(int i = 0; i < n; i++) {
+      result[i] = a[i][n + i] - 1d / n;
+    }
+    return result;
+  }
+}
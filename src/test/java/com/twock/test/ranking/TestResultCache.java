@@ -0,0 +1,167 @@
+package com.twock.test.ranking;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.twock.ranking.Pairing;
+import com.twock.ranking.PlainRanker;
+import com.twock.ranking.ResultCache;
+import com.twock.ranking.WinBonusRanker;
+import org.joda.time.LocalDate;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Chris Pearson
+ */
+public class TestResultCache {
+  @Test
+  public void testUnchangedGroupsLoadedAcrossRankers() throws IOException {
+    Path dir = Files.createTempDirectory("cache");
+    PlainRanker first = new PlainRanker();
+    first.setResultCache(new ResultCache(dir, 1024 * 1024));
+    addMatches(first);
+    double a = first.getRanking("A");
+    double d = first.getRanking("D");
+
+    // a new cache over the same directory, as a later run would have
+    ResultCache cache = new ResultCache(dir, 1024 * 1024);
+    assertEquals(cache.getEntryCount(), 2);
+    PlainRanker second = new PlainRanker();
+    second.setResultCache(cache);
+    addMatches(second);
+    second.addMatch(new LocalDate(), "F", "G", 4, 4);
+    assertEquals(second.getRanking("A"), a);
+    assertEquals(second.getRanking("D"), d);
+    assertEquals(second.getStepSize("A"), 0d);
+    assertEquals(cache.getHits(), 2);
+    assertEquals(cache.getMisses(), 1);
+
+    // the same matches under a different model are solved again
+    PlainRanker winBonus = new WinBonusRanker();
+    winBonus.setResultCache(cache);
+    addMatches(winBonus);
+    assertNotEquals(winBonus.getRanking("A"), a);
+    assertEquals(cache.getHits(), 2);
+  }
+
+  @Test
+  public void testKeyIgnoresPairingOrder() {
+    Pairing ab = pairing("A", "B", 10, 2);
+    Pairing bc = pairing("B", "C", 10, 5);
+    assertEquals(ResultCache.getKey("model", Arrays.asList(ab, bc)), ResultCache.getKey("model", Arrays.asList(bc, ab)));
+    assertNotEquals(ResultCache.getKey("model", Arrays.asList(ab, bc)), ResultCache.getKey("model", Arrays.asList(ab, pairing("B", "C", 10, 6))));
+    assertNotEquals(ResultCache.getKey("model", Arrays.asList(ab)), ResultCache.getKey("other", Arrays.asList(ab)));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEvicted() throws IOException {
+    Path dir = Files.createTempDirectory("cache");
+    Map<String, Double> ratings = Collections.singletonMap("A", 50d);
+    ResultCache cache = new ResultCache(dir, 1024 * 1024);
+    cache.put("size", ratings);
+    long entryBytes = cache.getSizeBytes();
+
+    cache = new ResultCache(dir, entryBytes * 2);
+    cache.put("one", ratings);
+    cache.put("two", ratings);
+    assertNotNull(cache.get("one"));
+    cache.put("three", ratings);
+    assertEquals(cache.getEvictions(), 2);
+    assertNull(cache.get("two"));
+    assertNotNull(cache.get("one"));
+    assertNotNull(cache.get("three"));
+    assertFalse(Files.exists(dir.resolve("two.ratings")));
+  }
+
+  @Test
+  public void testFailedRenameRemovesTemporaryFile() throws IOException {
+    Path dir = Files.createTempDirectory("cache");
+    ResultCache cache = new ResultCache(dir, 1024 * 1024);
+    // a non-empty directory where the entry belongs cannot be replaced
+    Files.createDirectories(dir.resolve("blocked.ratings").resolve("child"));
+    cache.put("blocked", Collections.singletonMap("A", 50d));
+    assertEquals(cache.getEntryCount(), 0);
+    assertEquals(listFiles(dir, "*.tmp").size(), 0);
+  }
+
+  @Test
+  public void testConcurrentPutAndGet() throws Exception {
+    Path dir = Files.createTempDirectory("cache");
+    final Map<String, Double> ratings = Collections.singletonMap("A", 50d);
+    ResultCache sizing = new ResultCache(Files.createTempDirectory("cache"), 1024 * 1024);
+    sizing.put("size", ratings);
+    // room for a few entries, so threads evict each other's results while reading them
+    final ResultCache cache = new ResultCache(dir, sizing.getSizeBytes() * 5);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      for(int thread = 0; thread < 8; thread++) {
+        final String prefix = "t" + thread + "-";
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            for(int i = 0; i < 100; i++) {
+              cache.put(prefix + i, ratings);
+              Map<String, Double> cached = cache.get(prefix + i);
+              // either read in full or already evicted by another thread
+              assertTrue(cached == null || cached.equals(ratings));
+              cache.get(prefix + (i / 2));
+            }
+            return null;
+          }
+        }));
+      }
+      for(Future<Void> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(cache.getHits() + cache.getMisses(), 1600);
+    assertEquals(cache.getEvictions(), 800 - cache.getEntryCount());
+    assertEquals(listFiles(dir, "*.tmp").size(), 0);
+    List<Path> files = listFiles(dir, "*.ratings");
+    assertEquals(files.size(), cache.getEntryCount());
+    long bytes = 0;
+    for(Path file : files) {
+      bytes += Files.size(file);
+    }
+    assertEquals(bytes, cache.getSizeBytes());
+  }
+
+  private static List<Path> listFiles(Path dir, String glob) throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+      for(Path file : stream) {
+        files.add(file);
+      }
+    }
+    return files;
+  }
+
+  private static void addMatches(PlainRanker ranker) {
+    ranker.addMatch(new LocalDate(), "A", "B", 10, 2);
+    ranker.addMatch(new LocalDate(), "B", "C", 10, 5);
+    ranker.addMatch(new LocalDate(), "C", "A", 10, 6);
+    ranker.addMatch(new LocalDate(), "D", "E", 3, 10);
+  }
+
+  private static Pairing pairing(String team1, String team2, int score1, int score2) {
+    Pairing pairing = new Pairing(team1, team2);
+    pairing.add(score1, score2);
+    return pairing;
+  }
+}
@@ -0,0 +1,130 @@
+package com.twock.test.ranking;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.twock.ranking.*;
+import org.joda.time.LocalDate;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Chris Pearson
+ */
+public class TestShardedRanker {
+  private final List<RankWorker> workers = new ArrayList<>();
+
+  @BeforeMethod
+  public void startWorkers() throws IOException {
+    for(int i = 0; i < 3; i++) {
+      RankWorker worker = new RankWorker(0);
+      worker.start();
+      workers.add(worker);
+    }
+  }
+
+  @AfterMethod
+  public void stopWorkers() throws IOException {
+    for(RankWorker worker : workers) {
+      worker.stop();
+    }
+    workers.clear();
+  }
+
+  @Test
+  public void testMatchesSingleJvmWithFailingWorkers() throws IOException {
+    List<InetSocketAddress> addresses = new ArrayList<>();
+    for(RankWorker worker : workers) {
+      addresses.add(worker.getAddress());
+    }
+    // a worker that has already died
+    try (ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      addresses.add(0, (InetSocketAddress)closed.getLocalSocketAddress());
+    }
+    ShardedRanker sharded = new ShardedRanker(new WeightedGoalDifferenceRanker(), addresses, 5);
+    PlainRanker local = new WeightedGoalDifferenceRanker();
+    local.setSolver(new MultigridSolver());
+    Random random = new Random(2);
+    // one group of 16 teams split across shards, plus small separate groups bundled together
+    for(int i = 0; i < 40; i++) {
+      addMatch(random, "T" + random.nextInt(16), "T" + random.nextInt(16), sharded, local);
+    }
+    for(int i = 0; i < 15; i++) {
+      addMatch(random, "T" + i, "T" + (i + 1), sharded, local);
+    }
+    for(int i = 0; i < 6; i++) {
+      addMatch(random, "S" + i, "S" + i + "x", sharded, local);
+    }
+    assertRankingsEqual(sharded, local);
+
+    workers.get(1).stop();
+    addMatch(random, "T0", "T15", sharded, local);
+    assertRankingsEqual(sharded, local);
+    sharded.shutdown();
+  }
+
+  @Test
+  public void testLongChainAcrossShards() {
+    List<InetSocketAddress> addresses = new ArrayList<>();
+    for(RankWorker worker : workers) {
+      addresses.add(worker.getAddress());
+    }
+    ShardedRanker sharded = new ShardedRanker(new PlainRanker(), addresses, 10);
+    PlainRanker local = new PlainRanker();
+    local.setSolver(new MultigridSolver());
+    Random random = new Random(4);
+    // each team only plays the next, so a change at one end has to pass through all 30 shards to reach the other
+    for(int i = 0; i < 299; i++) {
+      addMatch(random, "T" + i, "T" + (i + 1), sharded, local);
+    }
+    try {
+      assertRankingsEqual(sharded, local);
+    } finally {
+      sharded.shutdown();
+    }
+  }
+
+  @Test
+  public void testGivesUpAfterRetries() throws IOException {
+    List<InetSocketAddress> addresses = new ArrayList<>();
+    try (ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      addresses.add((InetSocketAddress)closed.getLocalSocketAddress());
+    }
+    ShardedRanker sharded = new ShardedRanker(new PlainRanker(), addresses, 5);
+    sharded.addMatch(new LocalDate(), "A", "B", 10, 2);
+    try {
+      sharded.getRanking("A");
+      fail("Solved without any live workers");
+    } catch(RuntimeException e) {
+      assertTrue(e.getCause().getMessage().contains("3 attempts"), e.getCause().getMessage());
+    } finally {
+      sharded.shutdown();
+    }
+  }
+
+  private static void addMatch(Random random, String team1, String team2, Ranker... rankers) {
+    if(team1.equals(team2)) {
+      return;
+    }
+    int score1 = random.nextInt(11);
+    int score2 = random.nextInt(11);
+    for(Ranker ranker : rankers) {
+      ranker.addMatch(new LocalDate(), team1, team2, score1, score2);
+    }
+  }
+
+  private static void assertRankingsEqual(Ranker actual, Ranker expected) {
+    assertEquals(actual.getTeams(), expected.getTeams());
+    for(String team : expected.getTeams()) {
+      assertEquals(actual.getRanking(team), expected.getRanking(team), 0.000001, team);
+    }
+  }
+}